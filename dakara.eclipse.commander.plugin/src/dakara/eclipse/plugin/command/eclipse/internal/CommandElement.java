@@ -25,6 +25,10 @@ public class CommandElement extends QuickAccessElement {
 	public ParameterizedCommand getParameterizedCommand() {
 		return parameterizedCommand;
 	}
+	
+	public boolean isEnabled() {
+		return provider.isEnabled(parameterizedCommand);
+	}
 
 	@Override
 	public void execute() {
@@ -1,9 +1,10 @@
 package dakara.eclipse.plugin.command.eclipse.internal;
 
-import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import org.eclipse.core.commands.Command;
@@ -24,19 +25,41 @@ import org.eclipse.ui.internal.quickaccess.QuickAccessProvider;
 import org.eclipse.ui.quickaccess.QuickAccessElement;
 
 public class CommandProvider extends QuickAccessProvider {
-	private final IEvaluationContext evaluationContext;
-	private final IHandlerService handlerService;
-	private final ICommandService commandService;
-	private final EHandlerService ehandlerService;
+	private IEvaluationContext evaluationContext;
+	private IHandlerService handlerService;
+	private ICommandService commandService;
+	private EHandlerService ehandlerService;
 	private final Map<String, QuickAccessElement> commandById;
+	// every parameter combination of each defined command regardless of enablement
+	private volatile Map<ParameterizedCommand, List<CommandElement>> elementsByCommand = null;
+	// enablement is only evaluated for commands being shown, and is kept for as long as the evaluation context is
+	private final Map<String, Boolean> enablementByCommandId = new ConcurrentHashMap<>();
 	
 	public CommandProvider(IEvaluationContext evaluationContext) {
+		commandById = new ConcurrentHashMap<>();
+		setEvaluationContext(evaluationContext);
+	}
+	
+	public CommandProvider setEvaluationContext(IEvaluationContext evaluationContext) {
 		this.evaluationContext = evaluationContext;
 		IEclipseContext context = ((ExpressionContext) evaluationContext).eclipseContext;
 		ehandlerService = context.get(EHandlerService.class);
 		handlerService  = context.get(IHandlerService.class);
 		commandService  = context.get(ICommandService.class);
-		commandById = new HashMap<>();
+		enablementByCommandId.clear();
+		return this;
+	}
+	
+	public boolean isEnabled(ParameterizedCommand command) {
+		return enablementByCommandId.computeIfAbsent(command.getId(), commandId -> ehandlerService.canExecute(new ParameterizedCommand(command.getCommand(), null)));
+	}
+	
+	/*
+	 * Commands or their parameters have been defined or undefined
+	 */
+	public CommandProvider invalidate() {
+		elementsByCommand = null;
+		return this;
 	}
 
 	@Override
@@ -51,16 +74,30 @@ public class CommandProvider extends QuickAccessProvider {
 	}
 	
 	public QuickAccessElement[] getElements() {
-		return Arrays.stream(commandService.getDefinedCommands())
-			  .map(command -> new ParameterizedCommand(command, null))
-			  .filter(ehandlerService::canExecute)
-			  .flatMap(paramCommand -> getCombinations(paramCommand.getCommand()).stream().filter( item -> item != null) )
-			  .map(paramCommand -> new CommandElement((ParameterizedCommand) paramCommand, this))
+		return getElementsByCommand().values().stream()
+			  .flatMap(List::stream)
 			  .peek(element -> commandById.put(element.getId(), element))
 			  .collect(Collectors.toList())
 			  .toArray(new QuickAccessElement[]{});
 	}
 	
+	private Map<ParameterizedCommand, List<CommandElement>> getElementsByCommand() {
+		Map<ParameterizedCommand, List<CommandElement>> elements = elementsByCommand;
+		if (elements != null) return elements;
+		
+		elements = new LinkedHashMap<>();
+		for (Command command : commandService.getDefinedCommands()) {
+			Collection<ParameterizedCommand> combinations = getCombinations(command);
+			if (combinations == null) continue;
+			elements.put(new ParameterizedCommand(command, null), combinations.stream()
+					.filter(item -> item != null)
+					.map(paramCommand -> new CommandElement(paramCommand, this))
+					.collect(Collectors.toList()));
+		}
+		elementsByCommand = elements;
+		return elements;
+	}
+	
 	@SuppressWarnings("unchecked")
 	private Collection<ParameterizedCommand> getCombinations(Command command) {
 		try {
@@ -85,8 +122,7 @@ public class CommandProvider extends QuickAccessProvider {
 	
 	@Override
 	protected void doReset() {
-		if (evaluationContext instanceof ExpressionContext) {
-			((ExpressionContext) evaluationContext).eclipseContext.dispose();
-		}
+		// the evaluation context belongs to the active part, it is not ours to dispose
+		commandById.clear();
 	}
 }
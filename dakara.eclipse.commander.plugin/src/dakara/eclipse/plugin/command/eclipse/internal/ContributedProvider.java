@@ -0,0 +1,61 @@
+package dakara.eclipse.plugin.command.eclipse.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jface.resource.ImageDescriptor;
+import org.eclipse.ui.internal.quickaccess.QuickAccessProvider;
+import org.eclipse.ui.quickaccess.QuickAccessElement;
+
+import dakara.eclipse.plugin.command.provider.CommanderProvider;
+
+/*
+ * Adapts a provider contributed through the extension point.
+ * Its elements are streamed in by EclipseCommandProvider, this only holds those of the last completed load.
+ */
+public class ContributedProvider extends QuickAccessProvider {
+	public final CommanderProvider contribution;
+	private volatile Map<String, QuickAccessElement> elementsById = new HashMap<>();
+
+	public ContributedProvider(CommanderProvider contribution) {
+		this.contribution = contribution;
+	}
+
+	@Override
+	public String getId() {
+		return contribution.getId();
+	}
+
+	@Override
+	public String getName() {
+		return contribution.getName();
+	}
+
+	@Override
+	public ImageDescriptor getImageDescriptor() {
+		return null;
+	}
+
+	@Override
+	public QuickAccessElement[] getElements() {
+		return elementsById.values().toArray(new QuickAccessElement[] {});
+	}
+
+	@Override
+	public QuickAccessElement findElement(String id, String filterText) {
+		return elementsById.get(id);
+	}
+
+	public ContributedProvider setElements(Iterable<QuickAccessElementWithProvider> elements) {
+		Map<String, QuickAccessElement> loadedElements = new HashMap<>();
+		for (QuickAccessElementWithProvider element : elements) {
+			loadedElements.put(element.getId(), element);
+		}
+		elementsById = loadedElements;
+		return this;
+	}
+
+	@Override
+	protected void doReset() {
+	}
+}
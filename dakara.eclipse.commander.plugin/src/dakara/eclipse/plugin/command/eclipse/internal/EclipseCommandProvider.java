@@ -1,12 +1,29 @@
 package dakara.eclipse.plugin.command.eclipse.internal;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.eclipse.core.commands.CommandManager;
+import org.eclipse.core.runtime.IConfigurationElement;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IRegistryChangeEvent;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.debug.core.DebugPlugin;
+import org.eclipse.debug.core.ILaunchConfiguration;
+import org.eclipse.debug.core.ILaunchConfigurationListener;
 import org.eclipse.e4.core.commands.ExpressionContext;
 import org.eclipse.e4.ui.model.application.MApplication;
+import org.eclipse.e4.ui.model.application.ui.basic.MWindow;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.ui.PlatformUI;
 import org.eclipse.ui.internal.WorkbenchWindow;
 import org.eclipse.ui.internal.quickaccess.QuickAccessProvider;
@@ -18,58 +35,377 @@ import org.eclipse.ui.internal.quickaccess.providers.ViewProvider;
 import org.eclipse.ui.internal.quickaccess.providers.WizardProvider;
 import org.eclipse.ui.quickaccess.QuickAccessElement;
 
+import dakara.eclipse.plugin.command.Constants;
+import dakara.eclipse.plugin.command.provider.CommanderElementSink;
+import dakara.eclipse.plugin.command.provider.CommanderProvider;
+import dakara.eclipse.plugin.log.EclipsePluginLogger;
+
+/*
+ * Lives as long as the Commander handler so the elements of each provider are only enumerated once.
+ * Providers whose elements depend on the active part or selection are refreshed on every open,
+ * the others are kept until the command manager, extension registry or launch manager report a change.
+ *
+ * Providers that are not cached are loaded while the Commander is already showing.  Registry backed providers
+ * are loaded in background jobs, providers that touch the workbench model are loaded on the display thread
+ * one provider per slice.  Each provider's elements are published as soon as they are available.
+ *
+ * Providers contributed through the extension point always run in low priority background jobs and stream their
+ * elements in batches, so a slow or failing contribution cannot hold up the dialog or the built in providers.
+ * Whether their elements are out of date is also asked in that job.
+ *
+ * Elements are published in shards, a streamed batch only adds its own elements, so ranking a growing corpus
+ * only needs to scan the shards added since.
+ */
 public class EclipseCommandProvider {
+	private static final String UI_NAMESPACE = "org.eclipse.ui";
+	private static final String PROVIDERS_EXTENSION_POINT = "providers";
+	private static final long STREAM_PUBLISH_INTERVAL = 100;
+	private final Map<QuickAccessProvider, List<QuickAccessElementWithProvider>> elementsByProvider = new ConcurrentHashMap<>();
 	private List<QuickAccessProvider> providers;
-	private List<QuickAccessElementWithProvider> commandsAvailableWithCurrentContext = new ArrayList<>();
-	private Map<String, QuickAccessElementWithProvider> commandLookupByProviderAndId = new HashMap<>();
-	
+	private MWindow window;
+	private ViewProvider viewProvider;
+	private CommandProvider commandProvider;
+	private final PerspectiveProvider perspectiveProvider = new PerspectiveProvider();
+	private final ActionProvider actionProvider = new ActionProvider();
+	private final PreferenceProvider preferenceProvider = new PreferenceProvider();
+	private final PropertiesProvider propertiesProvider = new PropertiesProvider();
+	private final WizardProvider wizardProvider = new WizardProvider();
+	private final LaunchProvider launchProvider = new LaunchProvider();
+	private volatile List<ContributedProvider> contributedProviders = null;
+	private final EclipsePluginLogger logger = new EclipsePluginLogger(Constants.BUNDLE_ID);
+	private volatile List<List<QuickAccessElementWithProvider>> commandShardsAvailableWithCurrentContext = new ArrayList<>();
+	private volatile Map<String, QuickAccessElementWithProvider> commandLookupByProviderAndId = new ConcurrentHashMap<>();
+	// shards of each provider in provider order, null until the provider has published for this open
+	private List<List<List<QuickAccessElementWithProvider>>> loadedElements = new ArrayList<>();
+	private volatile int loadGeneration = 0;
+	private Runnable commandsChangedListener = () -> {};
+	private final AtomicBoolean commandsChangedNotificationPending = new AtomicBoolean(false);
+
 	public EclipseCommandProvider() {
 		initializeWithCurrentContext();
+		installInvalidationListeners();
 	}
 
 	public EclipseCommandProvider initializeWithCurrentContext() {
-		commandsAvailableWithCurrentContext.clear();
-		
 		WorkbenchWindow workbenchWindow = (WorkbenchWindow) PlatformUI.getWorkbench().getActiveWorkbenchWindow();
-		final org.eclipse.e4.ui.model.application.ui.basic.MWindow model = workbenchWindow.getModel();
+		final MWindow model = workbenchWindow.getModel();
+		final ExpressionContext expressionContext = new ExpressionContext(model.getContext().getActiveLeaf());
 
-		providers = new ArrayList<>();
+		if (window != model) {
+			// views are opened in the window they were listed for
+			if (viewProvider != null) invalidate(viewProvider);
+			viewProvider = new ViewProvider(model.getContext().get(MApplication.class), model);
+			window = model;
+		}
+		if (commandProvider == null) {
+			commandProvider = new CommandProvider(expressionContext);
+			model.getContext().get(CommandManager.class).addCommandManagerListener(event -> {
+				// commands were defined or undefined, the next open lists them again
+				if (event.isCommandChanged()) {
+					commandProvider.invalidate();
+					invalidate(commandProvider);
+				}
+			});
+		} else {
+			commandProvider.setEvaluationContext(expressionContext);
+		}
+		// action sets and properties follow the active part and selection
+		invalidate(actionProvider);
+		invalidate(propertiesProvider);
+		if (contributedProviders == null) contributedProviders = readContributedProviders();
+
+		List<QuickAccessProvider> providers = new ArrayList<>();
 		//providers.add(new EditorProvider());
-		providers.add(new ViewProvider(model.getContext().get(MApplication.class), model));
-		providers.add(new PerspectiveProvider());
-		providers.add(new CommandProvider(new ExpressionContext(model.getContext().getActiveLeaf())));
-		providers.add(new ActionProvider());
-		providers.add(new PreferenceProvider());
-		providers.add(new PropertiesProvider());
-		providers.add(new WizardProvider());
-		providers.add(new LaunchProvider());
-		
-		getAllCommands();
-		
+		providers.add(viewProvider);
+		providers.add(perspectiveProvider);
+		providers.add(commandProvider);
+		providers.add(actionProvider);
+		providers.add(preferenceProvider);
+		providers.add(propertiesProvider);
+		providers.add(wizardProvider);
+		providers.add(launchProvider);
+		providers.addAll(contributedProviders);
+
+		loadCommands(providers);
+		return this;
+	}
+
+	private List<ContributedProvider> readContributedProviders() {
+		List<ContributedProvider> contributed = new ArrayList<>();
+		for (IConfigurationElement element : Platform.getExtensionRegistry().getConfigurationElementsFor(Constants.BUNDLE_ID, PROVIDERS_EXTENSION_POINT)) {
+			try {
+				contributed.add(new ContributedProvider((CommanderProvider) element.createExecutableExtension("class")));
+			} catch (Throwable e) {
+				logger.error("Unable to create Commander provider contributed by '" + element.getContributor().getName() + "'", e);
+			}
+		}
+		return contributed;
+	}
+
+	private boolean hasChanged(ContributedProvider provider) {
+		try {
+			return provider.contribution.hasChanged();
+		} catch (Throwable e) {
+			logger.error("Problem occurred checking provider '" + provider.getName() + "'", e);
+			return false;
+		}
+	}
+
+	/*
+	 * Called on the display thread once for all providers published since the last call
+	 */
+	public EclipseCommandProvider setCommandsChangedListener(Runnable commandsChangedListener) {
+		this.commandsChangedListener = commandsChangedListener;
 		return this;
 	}
 
-	public List<QuickAccessElementWithProvider> getAllCommands() {
-		if (commandsAvailableWithCurrentContext.isEmpty()) {
-			for (QuickAccessProvider provider : providers) {
-				commandsAvailableWithCurrentContext.addAll(makeElementsWithProvider(provider));
-				for (QuickAccessElementWithProvider command: commandsAvailableWithCurrentContext) {
-					commandLookupByProviderAndId.put(provider.getId() + command.getId(), command);
+	private void loadCommands(List<QuickAccessProvider> providers) {
+		final int generation;
+		synchronized (this) {
+			// publishing indexes the provider list, it only changes together with the generation
+			this.providers = providers;
+			generation = ++loadGeneration;
+			loadedElements = new ArrayList<>(Collections.nCopies(providers.size(), null));
+			commandShardsAvailableWithCurrentContext = new ArrayList<>();
+			commandLookupByProviderAndId = new ConcurrentHashMap<>();
+		}
+
+		final Display display = PlatformUI.getWorkbench().getDisplay();
+		for (int index = 0; index < providers.size(); index++) {
+			final int providerIndex = index;
+			final QuickAccessProvider provider = providers.get(index);
+			final List<QuickAccessElementWithProvider> cachedElements = elementsByProvider.get(provider);
+			if (provider instanceof ContributedProvider) {
+				stream(generation, providerIndex, (ContributedProvider) provider);
+			} else if (cachedElements != null) {
+				publish(generation, providerIndex, cachedElements);
+			} else if (isThreadSafe(provider)) {
+				Job loadJob = new Job("Commander load " + provider.getName()) {
+					@Override
+					protected IStatus run(IProgressMonitor monitor) {
+						load(generation, providerIndex, provider);
+						return Status.OK_STATUS;
+					}
+				};
+				loadJob.setSystem(true);
+				loadJob.schedule();
+			} else {
+				display.asyncExec(() -> load(generation, providerIndex, provider));
+			}
+		}
+	}
+
+	/*
+	 * These only read extension registries or the launch manager.
+	 * Views, commands, action sets and properties read the workbench model and the active part.
+	 */
+	private boolean isThreadSafe(QuickAccessProvider provider) {
+		return provider == perspectiveProvider || provider == preferenceProvider || provider == wizardProvider || provider == launchProvider;
+	}
+
+	private void load(int generation, int providerIndex, QuickAccessProvider provider) {
+		// the Commander was opened again before we got to run, that open loads its own
+		if (generation != loadGeneration) return;
+		try {
+			// loaded outside of the map, a slow provider must not block the bin another provider is published from
+			final List<QuickAccessElementWithProvider> elements = makeElementsWithProvider(provider);
+			final List<QuickAccessElementWithProvider> existingElements = elementsByProvider.putIfAbsent(provider, elements);
+			publish(generation, providerIndex, existingElements != null ? existingElements : elements);
+		} catch (Throwable e) {
+			logger.error("Problem occurred loading elements of provider '" + provider.getName() + "'", e);
+		}
+	}
+
+	private void stream(int generation, int providerIndex, ContributedProvider provider) {
+		Job streamJob = new Job("Commander load " + provider.getName()) {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				if (generation != loadGeneration) return Status.CANCEL_STATUS;
+				// asked here rather than while opening, a slow contribution only delays its own elements
+				if (hasChanged(provider)) invalidate(provider);
+				final List<QuickAccessElementWithProvider> cachedElements = elementsByProvider.get(provider);
+				if (cachedElements != null) {
+					publish(generation, providerIndex, cachedElements);
+					return Status.OK_STATUS;
+				}
+
+				StreamingSink sink = new StreamingSink(generation, providerIndex, provider, monitor);
+				try {
+					provider.contribution.load(sink);
+				} catch (Throwable e) {
+					logger.error("Problem occurred loading elements of provider '" + provider.getName() + "'", e);
+					return Status.OK_STATUS;
 				}
+				if (sink.isCancelled()) return Status.CANCEL_STATUS;
+
+				// only a completed load is kept for later opens
+				final List<QuickAccessElementWithProvider> elements = sink.complete();
+				elementsByProvider.put(provider, elements);
+				provider.setElements(elements);
+				return Status.OK_STATUS;
+			}
+		};
+		streamJob.setSystem(true);
+		streamJob.setPriority(Job.DECORATE);
+		streamJob.schedule();
+	}
+
+	/*
+	 * Collects the streamed elements and publishes those added since the last publish at most once per interval,
+	 * since every publish ranks the corpus again.
+	 */
+	private class StreamingSink implements CommanderElementSink {
+		private final int generation;
+		private final int providerIndex;
+		private final ContributedProvider provider;
+		private final IProgressMonitor monitor;
+		private final List<QuickAccessElementWithProvider> elements = new ArrayList<>();
+		private int publishedCount = 0;
+		private boolean completed = false;
+		private long lastPublished = System.currentTimeMillis();
+
+		private StreamingSink(int generation, int providerIndex, ContributedProvider provider, IProgressMonitor monitor) {
+			this.generation = generation;
+			this.providerIndex = providerIndex;
+			this.provider = provider;
+			this.monitor = monitor;
+		}
+
+		@Override
+		public long corpusVersion() {
+			return generation;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return generation != loadGeneration || monitor.isCanceled();
+		}
+
+		@Override
+		public synchronized void add(Collection<? extends QuickAccessElement> addedElements) {
+			if (completed || isCancelled()) return;
+			for (QuickAccessElement element : addedElements) {
+				elements.add(new QuickAccessElementWithProvider(element, provider));
+			}
+			final long now = System.currentTimeMillis();
+			if (now - lastPublished < STREAM_PUBLISH_INTERVAL) return;
+			lastPublished = now;
+			publishAdded();
+		}
+
+		/*
+		 * Publishes what is left and returns all elements of the load, anything added later is dropped
+		 */
+		private synchronized List<QuickAccessElementWithProvider> complete() {
+			completed = true;
+			publishAdded();
+			return new ArrayList<>(elements);
+		}
+
+		private void publishAdded() {
+			if (publishedCount == elements.size()) return;
+			publish(generation, providerIndex, new ArrayList<>(elements.subList(publishedCount, elements.size())));
+			publishedCount = elements.size();
+		}
+	}
+
+	/*
+	 * Adds a shard of a provider's elements, a shard is never changed once published
+	 */
+	private void publish(int generation, int providerIndex, List<QuickAccessElementWithProvider> providerElements) {
+		synchronized (this) {
+			if (generation != loadGeneration) return;
+			List<List<QuickAccessElementWithProvider>> providerShards = loadedElements.get(providerIndex);
+			if (providerShards == null) {
+				providerShards = new ArrayList<>();
+				loadedElements.set(providerIndex, providerShards);
+			}
+			providerShards.add(providerElements);
+			for (QuickAccessElementWithProvider command : providerElements) {
+				commandLookupByProviderAndId.put(command.getProviderId() + command.getId(), command);
+			}
+
+			// in provider order so ranking ties do not depend on which provider finished first
+			List<List<QuickAccessElementWithProvider>> commandShards = new ArrayList<>();
+			for (List<List<QuickAccessElementWithProvider>> shards : loadedElements) {
+				if (shards != null) commandShards.addAll(shards);
 			}
+			commandShardsAvailableWithCurrentContext = commandShards;
 		}
-		return commandsAvailableWithCurrentContext;
+		notifyCommandsChanged();
+	}
+
+	/*
+	 * Every provider publishes on its own, listeners rank the commands again so they are told once for all of them
+	 */
+	private void notifyCommandsChanged() {
+		if (!commandsChangedNotificationPending.compareAndSet(false, true)) return;
+		PlatformUI.getWorkbench().getDisplay().asyncExec(() -> {
+			commandsChangedNotificationPending.set(false);
+			commandsChangedListener.run();
+		});
 	}
-	
+
+	private void installInvalidationListeners() {
+		Platform.getExtensionRegistry().addRegistryChangeListener((IRegistryChangeEvent event) -> {
+			if (hasExtensionChanges(event, "views")) invalidate(viewProvider);
+			if (hasExtensionChanges(event, "perspectives")) invalidate(perspectiveProvider);
+			if (hasExtensionChanges(event, "preferencePages")) invalidate(preferenceProvider);
+			if (hasExtensionChanges(event, "newWizards", "importWizards", "exportWizards")) invalidate(wizardProvider);
+		}, UI_NAMESPACE);
+		Platform.getExtensionRegistry().addRegistryChangeListener((IRegistryChangeEvent event) -> {
+			if (event.getExtensionDeltas(Constants.BUNDLE_ID, PROVIDERS_EXTENSION_POINT).length == 0) return;
+			final List<ContributedProvider> previousProviders = contributedProviders;
+			contributedProviders = null;
+			if (previousProviders != null) previousProviders.forEach(this::invalidate);
+		}, Constants.BUNDLE_ID);
+
+		DebugPlugin.getDefault().getLaunchManager().addLaunchConfigurationListener(new ILaunchConfigurationListener() {
+			@Override
+			public void launchConfigurationAdded(ILaunchConfiguration configuration) { invalidate(launchProvider); }
+			@Override
+			public void launchConfigurationChanged(ILaunchConfiguration configuration) { invalidate(launchProvider); }
+			@Override
+			public void launchConfigurationRemoved(ILaunchConfiguration configuration) { invalidate(launchProvider); }
+		});
+	}
+
+	private boolean hasExtensionChanges(IRegistryChangeEvent event, String ... extensionPoints) {
+		return Arrays.stream(extensionPoints).anyMatch(extensionPoint -> event.getExtensionDeltas(UI_NAMESPACE, extensionPoint).length > 0);
+	}
+
+	private void invalidate(QuickAccessProvider provider) {
+		elementsByProvider.remove(provider);
+	}
+
+	/*
+	 * The elements loaded so far, more shards are added as providers load
+	 */
+	public List<List<QuickAccessElementWithProvider>> getCommandShards() {
+		return commandShardsAvailableWithCurrentContext;
+	}
+
+	/*
+	 * Changes with every open, shards of the same version are only ever added to
+	 */
+	public long corpusVersion() {
+		return loadGeneration;
+	}
+
 	private List<QuickAccessElementWithProvider> makeElementsWithProvider(QuickAccessProvider provider) {
+		provider.reset(); // providers keep their own element caches
 		QuickAccessElement[] elements = provider.getElements();
 		List<QuickAccessElementWithProvider> elementsWithProvider = new ArrayList<>();
 		for (final QuickAccessElement element : elements) {
-			elementsWithProvider.add(new QuickAccessElementWithProvider(element, provider));
+			try {
+				elementsWithProvider.add(new QuickAccessElementWithProvider(element, provider));
+			} catch (Exception e) {
+				logger.error("Problem occurred reading element of provider '" + provider.getName() + "'", e);
+			}
 		}
 		return elementsWithProvider;
 	}
-	
+
 	public QuickAccessElementWithProvider getCommand(String providerId, String commandId) {
 		return commandLookupByProviderAndId.get(providerId + commandId);
 	}
@@ -1,19 +1,24 @@
 package dakara.eclipse.plugin.command.eclipse.internal;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.debug.core.DebugPlugin;
 import org.eclipse.debug.core.ILaunchConfiguration;
+import org.eclipse.debug.core.ILaunchConfigurationListener;
 import org.eclipse.debug.core.ILaunchManager;
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.ui.internal.quickaccess.QuickAccessProvider;
 import org.eclipse.ui.quickaccess.QuickAccessElement;
 
-// TODO - provide an extension point so that 3rd parties can contribute providers
-public class LaunchProvider extends QuickAccessProvider {
+/*
+ * Launch configurations are read from the launch manager once and then kept current through its change events.
+ * Reading them can be slow when they are stored on a shared drive.
+ */
+public class LaunchProvider extends QuickAccessProvider implements ILaunchConfigurationListener {
+	private Map<String, LauncherElement> elementsById = null;
 
 	@Override
 	public String getId() {
@@ -31,17 +36,31 @@ public class LaunchProvider extends QuickAccessProvider {
 	}
 
 	@Override
-	public QuickAccessElement[] getElements() {
-		List<QuickAccessElement> elements = new ArrayList<QuickAccessElement>();
+	public synchronized QuickAccessElement[] getElements() {
+		return getElementsById().values().toArray(new QuickAccessElement[] {});
+	}
+
+	private Map<String, LauncherElement> getElementsById() {
+		if (elementsById != null) return elementsById;
+
+		ILaunchManager launchManager = DebugPlugin.getDefault().getLaunchManager();
+		// listen first so changes made while we are reading are not lost
+		launchManager.removeLaunchConfigurationListener(this);
+		launchManager.addLaunchConfigurationListener(this);
+		elementsById = new LinkedHashMap<>();
 		try {
-			ILaunchConfiguration[] launchConfigurations = DebugPlugin.getDefault().getLaunchManager().getLaunchConfigurations();
-			for (ILaunchConfiguration configuration : launchConfigurations) {
-				elements.add(new LauncherElement(this, configuration.getMemento(), configuration.getName(), configuration.getType().getName()));
+			for (ILaunchConfiguration configuration : launchManager.getLaunchConfigurations()) {
+				LauncherElement element = makeElement(configuration);
+				elementsById.put(element.getId(), element);
 			}
 		} catch (CoreException e) {
 			e.printStackTrace();
 		}
-		return elements.toArray(new QuickAccessElement[] {});
+		return elementsById;
+	}
+
+	private LauncherElement makeElement(ILaunchConfiguration configuration) throws CoreException {
+		return new LauncherElement(this, configuration.getMemento(), configuration.getName(), configuration.getType().getName());
 	}
 
 	public void execute(LauncherElement element) {
@@ -54,18 +73,44 @@ public class LaunchProvider extends QuickAccessProvider {
 	}
 	
 	@Override
-	public QuickAccessElement findElement(String id, String filterText) {
+	public synchronized QuickAccessElement findElement(String id, String filterText) {
+		return getElementsById().get(id);
+	}
+
+	@Override
+	public void launchConfigurationAdded(ILaunchConfiguration configuration) {
+		updateElement(configuration);
+	}
+
+	@Override
+	public void launchConfigurationChanged(ILaunchConfiguration configuration) {
+		updateElement(configuration);
+	}
+
+	@Override
+	public synchronized void launchConfigurationRemoved(ILaunchConfiguration configuration) {
+		if (elementsById == null || configuration.isWorkingCopy()) return;
 		try {
-			ILaunchConfiguration configuration = DebugPlugin.getDefault().getLaunchManager().getLaunchConfiguration(id);
-			return new LauncherElement(this, configuration.getMemento(), configuration.getName(), configuration.getType().getName());
+			elementsById.remove(configuration.getMemento());
 		} catch (CoreException e) {
-			e.printStackTrace();
+			// we can no longer tell which one it was, read them all again when next needed
+			elementsById = null;
+		}
+	}
+
+	private synchronized void updateElement(ILaunchConfiguration configuration) {
+		if (elementsById == null || configuration.isWorkingCopy()) return;
+		try {
+			LauncherElement element = makeElement(configuration);
+			elementsById.put(element.getId(), element);
+		} catch (CoreException e) {
+			elementsById = null;
 		}
-		return null;
 	}
 
 	@Override
 	protected void doReset() {
+		// elements are kept current by the launch configuration events
 	}
 
 }
@@ -1,21 +1,36 @@
 package dakara.eclipse.plugin.command.eclipse.internal;
 
+import java.util.Objects;
+
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.ui.internal.quickaccess.QuickAccessProvider;
 import org.eclipse.ui.quickaccess.QuickAccessElement;
 
+/*
+ * Snapshot of an element taken when its provider is loaded.
+ * Ranking reads the label and provider name for every item on every keystroke,
+ * so they are resolved once here rather than asking the element each time.
+ */
 public class QuickAccessElementWithProvider extends QuickAccessElement {
-	private QuickAccessElement element;
-	private QuickAccessProvider provider;
+	private final QuickAccessElement element;
+	private final QuickAccessProvider provider;
+	private final String providerId;
+	private final String providerName;
+	private final String id;
+	private final String label;
 	
 	public QuickAccessElementWithProvider(QuickAccessElement element, QuickAccessProvider provider) {
 		this.element = element;
 		this.provider = provider;
+		this.providerId = provider.getId();
+		this.providerName = provider.getName();
+		this.id = element.getId();
+		this.label = element.getLabel();
 	}
 	
 	@Override
 	public String getLabel() {
-		return element.getLabel();
+		return label;
 	}
 
 	@Override
@@ -25,7 +40,7 @@ public class QuickAccessElementWithProvider extends QuickAccessElement {
 
 	@Override
 	public String getId() {
-		return element.getId();
+		return id;
 	}
 
 	@Override
@@ -33,8 +48,41 @@ public class QuickAccessElementWithProvider extends QuickAccessElement {
 		element.execute();
 	}
 	
+	/*
+	 * Only commands have enablement, everything else can always be executed
+	 */
+	public boolean isEnabled() {
+		if (element instanceof CommandElement) return ((CommandElement) element).isEnabled();
+		return true;
+	}
+	
 	public QuickAccessProvider getProvider() {
 		return provider;
 	}
+	
+	public String getProviderId() {
+		return providerId;
+	}
+	
+	public String getProviderName() {
+		return providerName;
+	}
+	
+	/*
+	 * Providers hand out new elements every time they are loaded.
+	 * Elements of different loads are the same item in history, frecency and remembered choices.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) return true;
+		if (!(obj instanceof QuickAccessElementWithProvider)) return false;
+		QuickAccessElementWithProvider other = (QuickAccessElementWithProvider) obj;
+		return Objects.equals(providerId, other.providerId) && Objects.equals(id, other.id);
+	}
+	
+	@Override
+	public int hashCode() {
+		return Objects.hash(providerId, id);
+	}
 
 }
@@ -2,42 +2,66 @@ package dakara.eclipse.plugin.command.handlers;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import dakara.eclipse.plugin.command.eclipse.internal.EclipseCommandProvider;
 import dakara.eclipse.plugin.command.eclipse.internal.QuickAccessElementWithProvider;
 import dakara.eclipse.plugin.command.settings.PersistedWorkingSet;
-import dakara.eclipse.plugin.command.settings.PersistedWorkingSet.HistoryEntry;
+import dakara.eclipse.plugin.command.settings.PersistedWorkingSet.HistoryKey;
 import dakara.eclipse.plugin.kavi.picklist.InputState;
 import dakara.eclipse.plugin.stringscore.FieldResolver;
 import dakara.eclipse.plugin.stringscore.ListRankAndFilter;
+import dakara.eclipse.plugin.stringscore.ListRankAndFilter.RankedShards;
 import dakara.eclipse.plugin.stringscore.RankedItem;
 
 public class CommanderContentProviders {
 	
 	public static Function<InputState, List<RankedItem<QuickAccessElementWithProvider>>> listContentDiscoveryProvider(ListRankAndFilter<QuickAccessElementWithProvider> listRankAndFilter, PersistedWorkingSet<QuickAccessElementWithProvider> historyStore, EclipseCommandProvider eclipseCommandProvider) {
 		
+		// providers keep adding shards while the Commander shows, only those are ranked when the query stays the same
+		RankedShards<QuickAccessElementWithProvider> rankedShards = new RankedShards<>();
 		return (inputState) -> {
-			List<RankedItem<QuickAccessElementWithProvider>> filteredList = listRankAndFilter.rankAndFilter(inputState.inputCommand, eclipseCommandProvider.getAllCommands());
+			final long corpusVersion = eclipseCommandProvider.corpusVersion();
+			List<RankedItem<QuickAccessElementWithProvider>> filteredList = listRankAndFilter.rankAndFilterShards(inputState.inputCommand, eclipseCommandProvider.getCommandShards(), rankedShards, corpusVersion);
 			return filteredList;
 		};
 	}
 	
 	public static Function<InputState, List<RankedItem<QuickAccessElementWithProvider>>> listContentRecallProvider(ListRankAndFilter<QuickAccessElementWithProvider> listRankAndFilter, PersistedWorkingSet<QuickAccessElementWithProvider> historyStore, EclipseCommandProvider eclipseCommandProvider) {
 
+		AtomicReference<List<PersistedWorkingSet<QuickAccessElementWithProvider>.HistoryEntry>> historyEntries = new AtomicReference<>();
+		AtomicReference<List<QuickAccessElementWithProvider>> uniqueHistoryItems = new AtomicReference<>();
 		return (inputState) -> {
-			List<QuickAccessElementWithProvider> historyItems = new ArrayList<>();
-			for (HistoryEntry entry : historyStore.getHistory()) {
-				historyItems.add((QuickAccessElementWithProvider) entry.getHistoryItem());
+			List<PersistedWorkingSet<QuickAccessElementWithProvider>.HistoryEntry> currentHistoryEntries = historyStore.getHistory();
+			// Has the history changed since last time
+			if (currentHistoryEntries != historyEntries.get()) {
+				List<QuickAccessElementWithProvider> historyItems = new ArrayList<>();
+				for (PersistedWorkingSet<QuickAccessElementWithProvider>.HistoryEntry entry : currentHistoryEntries) {
+					historyItems.add(entry.getHistoryItem());
+				}
+				historyEntries.set(currentHistoryEntries);
+				uniqueHistoryItems.set(historyItems.stream().distinct().collect(Collectors.toList()));
 			}
 			
-			List<QuickAccessElementWithProvider> uniqueHistoryItems = historyItems.stream().distinct().collect(Collectors.toList());
-			List<RankedItem<QuickAccessElementWithProvider>> filteredList = listRankAndFilter.rankAndFilterOrdered(inputState.inputCommand, uniqueHistoryItems);
+			List<RankedItem<QuickAccessElementWithProvider>> filteredList = listRankAndFilter.rankAndFilterOrdered(inputState.inputCommand, uniqueHistoryItems.get());
 			return filteredList;
 		};
 	}
 	
+	public static FieldResolver<QuickAccessElementWithProvider> labelField() {
+		return new FieldResolver<>("label", QuickAccessElementWithProvider::getLabel);
+	}
+	
+	public static FieldResolver<QuickAccessElementWithProvider> providerField() {
+		return new FieldResolver<>("provider", QuickAccessElementWithProvider::getProviderName);
+	}
+	
+	public static HistoryKey historyKey(QuickAccessElementWithProvider item) {
+		return new HistoryKey(item.getProviderId(), item.getId());
+	}
+	
 	public static ListRankAndFilter<QuickAccessElementWithProvider> listRankAndFilter(FieldResolver<QuickAccessElementWithProvider> labelField, FieldResolver<QuickAccessElementWithProvider> providerField) {
 		ListRankAndFilter<QuickAccessElementWithProvider> listRankAndFilter = ListRankAndFilter.make(labelField.fieldResolver);
 		listRankAndFilter.addField(labelField.fieldId, labelField.fieldResolver);
@@ -25,6 +25,7 @@ import dakara.eclipse.plugin.stringscore.ListRankAndFilter;
 public class CommanderHandler extends AbstractHandler {
 	private EclipseCommandProvider eclipseCommandProvider;
 	private KaviPickListDialog<QuickAccessElementWithProvider> kaviPickList;
+	private PersistedWorkingSet<QuickAccessElementWithProvider> settingsStore;
 
 	/* TODO's
 	 * - allow other commands to reuse dialog to show other lists for faster speed
@@ -40,21 +41,44 @@ public class CommanderHandler extends AbstractHandler {
 	}
 	
 	public void initialize(Display display) throws ExecutionException {
-		FieldResolver<QuickAccessElementWithProvider> providerField = new FieldResolver<>("provider",  item -> item.getProvider().getName());
-		FieldResolver<QuickAccessElementWithProvider> labelField = new FieldResolver<>("label",  item -> item.getLabel());
+		// the dialog is hidden between uses and only needs to be built again once its shell has been disposed
+		if (kaviPickList != null && kaviPickList.canShow()) {
+			eclipseCommandProvider.initializeWithCurrentContext();
+			kaviPickList.setCurrentProvider(settingsStore.getContentMode());
+			kaviPickList.setAutoCloseOnFocusLost(settingsStore.getAutoCloseFocusLost());
+			kaviPickList.setBounds(600, 400);
+			kaviPickList.show();
+			return;
+		}
+		
+		FieldResolver<QuickAccessElementWithProvider> providerField = CommanderContentProviders.providerField();
+		FieldResolver<QuickAccessElementWithProvider> labelField = CommanderContentProviders.labelField();
 		ListRankAndFilter<QuickAccessElementWithProvider> listRankAndFilter = CommanderContentProviders.listRankAndFilter(labelField, providerField);
 		
-		eclipseCommandProvider = new EclipseCommandProvider();
-		PersistedWorkingSet<QuickAccessElementWithProvider> settingsStore = createSettingsStore(eclipseCommandProvider);
+		if (eclipseCommandProvider == null) eclipseCommandProvider = new EclipseCommandProvider();
+		else eclipseCommandProvider.initializeWithCurrentContext();
+		if (settingsStore == null) settingsStore = createSettingsStore(eclipseCommandProvider);
+		final PersistedWorkingSet<QuickAccessElementWithProvider> settingsStore = this.settingsStore;
+		listRankAndFilter.setBoostProvider(settingsStore::frecencyBoosts);
+		// providers keep loading after the dialog has opened
+		eclipseCommandProvider.setCommandsChangedListener(() -> {
+			settingsStore.resolveHistoryAgain();
+			if (kaviPickList != null) kaviPickList.refreshContent();
+		});
 		
 		kaviPickList = new KaviPickListDialog<>();
+		kaviPickList.setReusable(true);
 		kaviPickList.setListContentProvider("discovery", CommanderContentProviders.listContentDiscoveryProvider(listRankAndFilter, settingsStore, eclipseCommandProvider))
 					.setResolvedAction(resolvedAction(display, settingsStore))
+					.setQueryChoiceMemo(settingsStore::recallChoice, settingsStore::rememberChoice)
+					.setEnabledProvider(QuickAccessElementWithProvider::isEnabled)
 					.addColumn(labelField.fieldId, labelField.fieldResolver).widthPercent(100)
 					.addColumn(providerField.fieldId, providerField.fieldResolver).width(85).right().italic().fontColor(100, 100, 100).backgroundColor(250, 250, 250);
 		
 		kaviPickList.setListContentProvider("working",    CommanderContentProviders.listContentRecallProvider(listRankAndFilter, settingsStore, eclipseCommandProvider))
 					.setResolvedAction(resolvedAction(display, settingsStore))
+					.setQueryChoiceMemo(settingsStore::recallChoice, settingsStore::rememberChoice)
+					.setEnabledProvider(QuickAccessElementWithProvider::isEnabled)
 					.addColumn(labelField.fieldId, labelField.fieldResolver).widthPercent(100).setMarkerIndicatorProvider(item -> { 
 						HistoryEntry historyEntry = settingsStore.getHistoryEntry(item);
 						if (historyEntry == null) return false;
@@ -75,7 +99,7 @@ public class CommanderHandler extends AbstractHandler {
 
 	private PersistedWorkingSet<QuickAccessElementWithProvider> createSettingsStore(EclipseCommandProvider eclipseCommandProvider) {
 		Function<HistoryKey, QuickAccessElementWithProvider> historyItemResolver = historyKey -> eclipseCommandProvider.getCommand(historyKey.keys.get(0), historyKey.keys.get(1));
-		PersistedWorkingSet<QuickAccessElementWithProvider> historyStore = new PersistedWorkingSet<>(Constants.BUNDLE_ID, false, 20, item -> new HistoryKey(item.getProvider().getId(), item.getId()), historyItemResolver);
+		PersistedWorkingSet<QuickAccessElementWithProvider> historyStore = new PersistedWorkingSet<>(Constants.BUNDLE_ID, false, 20, CommanderContentProviders::historyKey, historyItemResolver);
 		historyStore.load();
 		
 		return historyStore;
@@ -0,0 +1,173 @@
+package dakara.eclipse.plugin.command.handlers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import org.eclipse.core.commands.Command;
+import org.eclipse.core.commands.common.NotDefinedException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jface.resource.ImageDescriptor;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Listener;
+import org.eclipse.ui.IStartup;
+import org.eclipse.ui.PlatformUI;
+import org.eclipse.ui.commands.ICommandService;
+import org.eclipse.ui.quickaccess.QuickAccessElement;
+
+import dakara.eclipse.plugin.command.Constants;
+import dakara.eclipse.plugin.command.eclipse.internal.ContributedProvider;
+import dakara.eclipse.plugin.command.eclipse.internal.QuickAccessElementWithProvider;
+import dakara.eclipse.plugin.command.provider.CommanderElementSink;
+import dakara.eclipse.plugin.command.provider.CommanderProvider;
+import dakara.eclipse.plugin.command.settings.PersistedWorkingSet.HistoryKey;
+import dakara.eclipse.plugin.log.EclipsePluginLogger;
+import dakara.eclipse.plugin.stringscore.ListRankAndFilter;
+import dakara.eclipse.plugin.stringscore.RankingWarmUp;
+
+/*
+ * Until the JIT has compiled the scoring code the first queries after startup run noticeably slower than later ones.
+ * Once there has been no key or mouse press for a while, rank a sample of the command labels in a low priority job.
+ * The sample is ranked with the Commander's own ranking configuration, field resolvers and a boost resolver like that of history,
+ * so the code warmed up is the code the first query runs.
+ * The job checks the time of the last press whenever it wakes up and goes back to sleep until the workbench has really been idle.
+ * Any key or mouse press stops the warm up, it is tried again after the next idle period.
+ *
+ * Disable with -Ddakara.commander.warmup=false
+ */
+public class CommanderWarmUp implements IStartup {
+	private static final EclipsePluginLogger logger = new EclipsePluginLogger(Constants.BUNDLE_ID);
+	private static final long IDLE_DELAY = 15000;
+	private static final long TIME_BUDGET = 2000;
+	private static final int MAX_ATTEMPTS = 3;
+	private static final int SAMPLE_SIZE = 5000;
+	private volatile long lastActivity = System.currentTimeMillis();
+	private int attempts = 0;
+
+	@Override
+	public void earlyStartup() {
+		if (!Boolean.parseBoolean(System.getProperty("dakara.commander.warmup", "true"))) return;
+
+		final Display display = PlatformUI.getWorkbench().getDisplay();
+		final Listener activityListener = event -> lastActivity = System.currentTimeMillis();
+		final Job warmUpJob = new Job("Commander warm up") {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				final long idleTime = System.currentTimeMillis() - lastActivity;
+				if (idleTime < IDLE_DELAY) {
+					schedule(IDLE_DELAY - idleTime);
+					return Status.OK_STATUS;
+				}
+				final long started = System.currentTimeMillis();
+				int queryCount = warmUp(() -> lastActivity >= started || monitor.isCanceled());
+				if (lastActivity < started || ++attempts >= MAX_ATTEMPTS) {
+					logger.info("warm up ran " + queryCount + " queries");
+					display.asyncExec(() -> removeActivityListener(display, activityListener));
+				} else {
+					schedule(IDLE_DELAY);
+				}
+				return Status.OK_STATUS;
+			}
+		};
+		warmUpJob.setSystem(true);
+		warmUpJob.setPriority(Job.DECORATE);
+
+		display.asyncExec(() -> {
+			display.addFilter(SWT.KeyDown, activityListener);
+			display.addFilter(SWT.MouseDown, activityListener);
+			warmUpJob.schedule(IDLE_DELAY);
+		});
+	}
+
+	private void removeActivityListener(Display display, Listener activityListener) {
+		if (display.isDisposed()) return;
+		display.removeFilter(SWT.KeyDown, activityListener);
+		display.removeFilter(SWT.MouseDown, activityListener);
+	}
+
+	private int warmUp(BooleanSupplier cancelled) {
+		try {
+			final List<QuickAccessElementWithProvider> sample = commandSample();
+			// some items have history so boosts are resolved the way they are for real
+			final Map<HistoryKey, Integer> boosts = new HashMap<>();
+			for (int index = 0; index < sample.size(); index += 10) {
+				boosts.put(CommanderContentProviders.historyKey(sample.get(index)), index % 30);
+			}
+			ListRankAndFilter<QuickAccessElementWithProvider> listRankAndFilter = CommanderContentProviders.listRankAndFilter(CommanderContentProviders.labelField(), CommanderContentProviders.providerField());
+			listRankAndFilter.setBoostProvider(() -> item -> boosts.getOrDefault(CommanderContentProviders.historyKey(item), 0));
+			return new RankingWarmUp<>(listRankAndFilter, QuickAccessElementWithProvider::getLabel).run(sample, TIME_BUDGET, cancelled);
+		} catch (Throwable e) {
+			logger.error("Problem occurred warming up ranking", e);
+			return 0;
+		}
+	}
+
+	private List<QuickAccessElementWithProvider> commandSample() {
+		final ContributedProvider sampleProvider = new ContributedProvider(new SampleProvider());
+		List<QuickAccessElementWithProvider> sample = new ArrayList<>();
+		ICommandService commandService = PlatformUI.getWorkbench().getService(ICommandService.class);
+		for (Command command : commandService.getDefinedCommands()) {
+			if (sample.size() >= SAMPLE_SIZE) break;
+			try {
+				sample.add(new QuickAccessElementWithProvider(new SampleElement(command.getId(), command.getName()), sampleProvider));
+			} catch (NotDefinedException e) {
+				// undefined commands are not listed by the Commander either
+			}
+		}
+		return sample;
+	}
+
+	/*
+	 * Only the label and id are read while ranking, the element is never executed
+	 */
+	private static class SampleElement extends QuickAccessElement {
+		private final String id;
+		private final String label;
+
+		private SampleElement(String id, String label) {
+			this.id = id;
+			this.label = label;
+		}
+
+		@Override
+		public String getId() {
+			return id;
+		}
+
+		@Override
+		public String getLabel() {
+			return label;
+		}
+
+		@Override
+		public ImageDescriptor getImageDescriptor() {
+			return null;
+		}
+
+		@Override
+		public void execute() {
+		}
+	}
+
+	private static class SampleProvider implements CommanderProvider {
+		@Override
+		public String getId() {
+			return "dakara.commander.warmup";
+		}
+
+		@Override
+		public String getName() {
+			return "Commands";
+		}
+
+		@Override
+		public void load(CommanderElementSink sink) {
+		}
+	}
+}
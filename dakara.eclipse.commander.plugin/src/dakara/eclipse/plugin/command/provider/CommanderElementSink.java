@@ -0,0 +1,20 @@
+package dakara.eclipse.plugin.command.provider;
+
+import java.util.Collection;
+
+import org.eclipse.ui.quickaccess.QuickAccessElement;
+
+/*
+ * Receives the elements of one load of a contributed provider.
+ * A load is superseded when the Commander is opened again, providers should then stop as soon as they notice.
+ */
+public interface CommanderElementSink {
+	/*
+	 * Identifies the corpus this load belongs to, elements added after it has been superseded are dropped
+	 */
+	long corpusVersion();
+
+	boolean isCancelled();
+
+	void add(Collection<? extends QuickAccessElement> elements);
+}
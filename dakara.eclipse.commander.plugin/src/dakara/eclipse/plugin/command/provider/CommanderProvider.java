@@ -0,0 +1,23 @@
+package dakara.eclipse.plugin.command.provider;
+
+/*
+ * Contributed through the dakara.eclipse.commander.plugin.providers extension point.
+ *
+ * load is called in a low priority background job and should push elements to the sink as they are found,
+ * so a slow source fills in while the Commander is showing instead of delaying it.
+ * The elements of a completed load are kept until hasChanged reports that they are out of date.
+ */
+public interface CommanderProvider {
+	String getId();
+
+	String getName();
+
+	void load(CommanderElementSink sink);
+
+	/*
+	 * Checked in the provider's background job each time the Commander opens, before the kept elements are reused
+	 */
+	default boolean hasChanged() {
+		return false;
+	}
+}
@@ -1,5 +1,7 @@
 package dakara.eclipse.plugin.command.settings;
 
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Platform;
 import org.eclipse.core.runtime.preferences.ConfigurationScope;
 import org.eclipse.core.runtime.preferences.IEclipsePreferences;
 import org.eclipse.core.runtime.preferences.IScopeContext;
@@ -40,8 +42,12 @@ public class EclipsePreferencesSerializer<T> {
 	}
 	
 	public EclipsePreferencesSerializer<T> saveSettings(final T settings) {
+		return saveJson(settingsAsJson(settings));
+	}
+	
+	public EclipsePreferencesSerializer<T> saveJson(final String json) {
 		IEclipsePreferences preferences = scopeContext.getNode(prefereneceId);
-		preferences.put(preferenceKey, settingsAsJson(settings));
+		preferences.put(preferenceKey, json);
 		try {
 			preferences.flush();
 		} catch (BackingStoreException e) {
@@ -50,6 +56,17 @@ public class EclipsePreferencesSerializer<T> {
 		return this;
 	}
 
+	/*
+	 * Files kept here share the scope of the preferences, per workspace for the instance scope and
+	 * across workspaces for the configuration scope.
+	 */
+	public IPath workingLocation() {
+		if (scopeContext == InstanceScope.INSTANCE) return Platform.getStateLocation(Platform.getBundle(prefereneceId));
+		IPath configurationLocation = scopeContext.getLocation();
+		if (configurationLocation == null) return null;
+		return configurationLocation.append(prefereneceId);
+	}
+
 	public T loadSettings() {
 		IEclipsePreferences preferences = scopeContext.getNode(prefereneceId);
 		String keyValue = preferences.get(preferenceKey, null);
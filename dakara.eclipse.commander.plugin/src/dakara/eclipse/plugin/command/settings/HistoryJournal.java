@@ -0,0 +1,132 @@
+package dakara.eclipse.plugin.command.settings;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import dakara.eclipse.plugin.command.settings.PersistedWorkingSet.HistoryKey;
+
+/*
+ * History is stored as a snapshot of the settings plus a journal of the history changes made since the snapshot.
+ * Each change is appended as a single JSON line, so recording history is a small sequential write
+ * regardless of how much history there is.  Compaction folds the journal into a new snapshot.
+ */
+public class HistoryJournal {
+	static final String SNAPSHOT_FILE = "history.json";
+	static final String JOURNAL_FILE = "history.journal";
+	private final Path snapshotFile;
+	private final Path journalFile;
+	private final Gson gson = new Gson();
+	private int journalSize = 0;
+
+	public HistoryJournal(Path directory) {
+		this.snapshotFile = directory.resolve(SNAPSHOT_FILE);
+		this.journalFile = directory.resolve(JOURNAL_FILE);
+	}
+
+	public boolean exists() {
+		return Files.exists(snapshotFile);
+	}
+
+	public String readSnapshot() throws IOException {
+		if (!Files.exists(snapshotFile)) return null;
+		return new String(Files.readAllBytes(snapshotFile), StandardCharsets.UTF_8);
+	}
+
+	public List<JournalRecord> readJournal() throws IOException {
+		List<JournalRecord> records = new ArrayList<>();
+		if (!Files.exists(journalFile)) return records;
+
+		try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty()) continue;
+				try {
+					records.add(gson.fromJson(line, JournalRecord.class));
+				} catch (JsonParseException e) {
+					// a write interrupted by a crash leaves a partial line, records appended after it are still good
+					continue;
+				}
+			}
+		}
+		journalSize = records.size();
+		return records;
+	}
+
+	public HistoryJournal append(List<JournalRecord> records) throws IOException {
+		if (records.isEmpty()) return this;
+		Files.createDirectories(journalFile.getParent());
+		final boolean damagedTail = !endsWithNewLine();
+		try (BufferedWriter writer = Files.newBufferedWriter(journalFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+			// terminate a partial line so our first record is not joined to it
+			if (damagedTail) writer.newLine();
+			for (JournalRecord record : records) {
+				writer.write(gson.toJson(record));
+				writer.newLine();
+			}
+		}
+		journalSize += records.size();
+		return this;
+	}
+
+	private boolean endsWithNewLine() throws IOException {
+		if (!Files.exists(journalFile)) return true;
+		try (SeekableByteChannel channel = Files.newByteChannel(journalFile, StandardOpenOption.READ)) {
+			if (channel.size() == 0) return true;
+			ByteBuffer lastByte = ByteBuffer.allocate(1);
+			channel.position(channel.size() - 1).read(lastByte);
+			return lastByte.get(0) == '\n';
+		}
+	}
+	
+	/*
+	 * The new snapshot replaces the old one before the journal is removed.
+	 * Should we fail in between, replaying the old journal over the new snapshot gives the same history,
+	 * as uses no later than those an entry already holds are not replayed.
+	 */
+	public HistoryJournal compact(String snapshotJson) throws IOException {
+		Files.createDirectories(snapshotFile.getParent());
+		Path snapshotUpdate = snapshotFile.resolveSibling(SNAPSHOT_FILE + ".tmp");
+		Files.write(snapshotUpdate, snapshotJson.getBytes(StandardCharsets.UTF_8));
+		Files.move(snapshotUpdate, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		Files.deleteIfExists(journalFile);
+		journalSize = 0;
+		return this;
+	}
+
+	public int journalSize() {
+		return journalSize;
+	}
+
+	public enum Operation {
+		TOUCH, FAVORITE, UNFAVORITE, REMOVE, REMOVE_ALL_NON_FAVORITES, CHOOSE
+	}
+
+	public static class JournalRecord {
+		public final Operation operation;
+		public final HistoryKey key;
+		public final long time;
+		public final String query;
+		public JournalRecord(Operation operation, HistoryKey key) {
+			this(operation, key, 0, null);
+		}
+		public JournalRecord(Operation operation, HistoryKey key, long time, String query) {
+			this.operation = operation;
+			this.key = key;
+			this.time = time;
+			this.query = query;
+		}
+	}
+}
@@ -1,18 +1,52 @@
 package dakara.eclipse.plugin.command.settings;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.ui.IWorkbench;
+import org.eclipse.ui.IWorkbenchListener;
+import org.eclipse.ui.PlatformUI;
+
+import com.google.gson.stream.JsonReader;
 
 import dakara.eclipse.plugin.command.Constants;
+import dakara.eclipse.plugin.command.settings.HistoryJournal.JournalRecord;
+import dakara.eclipse.plugin.command.settings.HistoryJournal.Operation;
 import dakara.eclipse.plugin.log.EclipsePluginLogger;
 
 public class PersistedWorkingSet<T> {
 	private EclipsePluginLogger logger = new EclipsePluginLogger(Constants.BUNDLE_ID);
 	private final int historyLimit;
 	private List<HistoryEntry> currentEntries = new ArrayList<>();
+	// changed under the store lock, read by ranking without it
+	private volatile Map<HistoryKey, Integer> frecencyBoosts = new ConcurrentHashMap<>();
+	static final long FRECENCY_HALF_LIFE = 7L * 24 * 60 * 60 * 1000;
+	static final int FRECENCY_BOOST_SCALE = 10;
+	static final int QUERY_CHOICE_LIMIT = 200;
 	private boolean historyChangedSinceCheck = false;
+	// Both are ordered from least to most recently used.
+	// All entries are indexed for lookup, favorites are left out of the recent index so eviction never has to skip them.
+	private final LinkedHashMap<HistoryKey, HistoryEntry> historyIndex = new LinkedHashMap<>();
+	private final LinkedHashMap<HistoryKey, HistoryEntry> recentIndex = new LinkedHashMap<>();
 	
 	public final Function<T, HistoryKey> historyItemIdResolver;
 	public final Function<HistoryKey, T> historyItemResolver;
@@ -20,42 +54,362 @@ public class PersistedWorkingSet<T> {
 	private EclipsePreferencesSerializer<CommanderSettings> eclipsePreferencesSerializer;
 	private final String featureId;
 	static final String HISTORY_KEY = "HISTORY";
+	static final long SAVE_DELAY = 5000;
+	private final AtomicBoolean unsavedChanges = new AtomicBoolean(false);
+	// stores waiting for their delayed save, a store loading the same settings has them written first
+	private static final Set<PersistedWorkingSet<?>> storesWithUnsavedChanges = ConcurrentHashMap.newKeySet();
+	private final boolean workspaceScope;
+	private final Job saveJob;
+	private final IWorkbenchListener shutdownListener;
+	static final int COMPACT_JOURNAL_SIZE = 200;
+	private HistoryJournal historyJournal;
+	private List<JournalRecord> unsavedRecords = new ArrayList<>();
+	private boolean snapshotRequired = false;
+	private final Object writeLock = new Object();
 	
 	public PersistedWorkingSet(String featureId, boolean workspaceScope, int historyLimit, Function<T, HistoryKey> historyItemIdResolver, Function<HistoryKey, T> historyItemResolver) {
 		this.featureId = featureId;
+		this.workspaceScope = workspaceScope;
 		this.historyLimit = historyLimit;
 		this.historyItemIdResolver = historyItemIdResolver;
 		this.historyItemResolver = historyItemResolver;
 		this.eclipsePreferencesSerializer = new EclipsePreferencesSerializer<>(featureId, workspaceScope, HISTORY_KEY, CommanderSettings.class);
 		this.commanderSettings = new CommanderSettings(featureId, new ArrayList<HistoryEntry>());
+		this.saveJob = new Job("Commander save settings") {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				flush();
+				return Status.OK_STATUS;
+			}
+		};
+		this.saveJob.setSystem(true);
+		this.shutdownListener = new IWorkbenchListener() {
+			@Override
+			public boolean preShutdown(IWorkbench workbench, boolean forced) {
+				flush();
+				return true;
+			}
+			@Override
+			public void postShutdown(IWorkbench workbench) {}
+		};
 	}
 
+	/*
+	 * Saving only marks the settings as changed.  Changes are written in the background at most once per save delay
+	 * so a burst of history updates, such as quickly switching editors, results in a single write.
+	 * Anything still pending is written when the workbench shuts down.
+	 */
 	public PersistedWorkingSet<T> save() {
+		if (!unsavedChanges.getAndSet(true)) {
+			storesWithUnsavedChanges.add(this);
+			synchronized (shutdownListener) {
+				PlatformUI.getWorkbench().addWorkbenchListener(shutdownListener);
+			}
+		}
+		// once scheduled, later saves are written by the same run rather than postponing it
+		final int saveState = saveJob.getState();
+		if (saveState != Job.WAITING && saveState != Job.SLEEPING) saveJob.schedule(SAVE_DELAY);
+		return this;
+	}
+	
+	public PersistedWorkingSet<T> flush() {
+		if (!unsavedChanges.getAndSet(false)) return this;
 		try {
-			eclipsePreferencesSerializer.saveSettings(commanderSettings);
+			synchronized (writeLock) {
+				if (historyJournal != null) writeJournal(historyJournal);
+				else writePreferences();
+			}
 		} catch (Throwable e) {
 			logger.error("Unable to save settings", e);
+			// still unsaved, the next save or the shutdown will try again
+			unsavedChanges.set(true);
+		}
+		synchronized (shutdownListener) {
+			if (!unsavedChanges.get()) {
+				storesWithUnsavedChanges.remove(this);
+				PlatformUI.getWorkbench().removeWorkbenchListener(shutdownListener);
+			}
 		}
 		return this;
 	}
 
+	/*
+	 * History changes are appended to the journal, anything else requires a new snapshot.
+	 * The journal is compacted into a snapshot once it has grown large enough.
+	 */
+	private void writeJournal(HistoryJournal journal) throws Exception {
+		List<JournalRecord> records;
+		String snapshotJson = null;
+		synchronized (this) {
+			records = unsavedRecords;
+			unsavedRecords = new ArrayList<>();
+			if (snapshotRequired || journal.journalSize() + records.size() > COMPACT_JOURNAL_SIZE) {
+				updatePersistedEntries();
+				snapshotJson = eclipsePreferencesSerializer.settingsAsJson(commanderSettings);
+				snapshotRequired = false;
+			}
+		}
+		try {
+			if (snapshotJson != null) journal.compact(snapshotJson);
+			else journal.append(records);
+		} catch (Exception e) {
+			// the changes are lost from the journal, so make sure they are part of the next snapshot
+			synchronized (this) {
+				snapshotRequired = true;
+			}
+			throw e;
+		}
+	}
+	
+	private void writePreferences() {
+		String json;
+		synchronized (this) {
+			unsavedRecords.clear();
+			updatePersistedEntries();
+			json = eclipsePreferencesSerializer.settingsAsJson(commanderSettings);
+		}
+		eclipsePreferencesSerializer.saveJson(json);
+	}
+
 	public PersistedWorkingSet<T> load() {
+		// not holding our own lock while another store writes
+		flushOtherStoresOfSameSettings();
+		return loadSettings();
+	}
+	
+	private synchronized PersistedWorkingSet<T> loadSettings() {
+		List<JournalRecord> records = new ArrayList<>();
 		try {
-			commanderSettings = migrateSettings(eclipsePreferencesSerializer.loadSettings());
+			historyJournal = makeHistoryJournal();
+			if (historyJournal != null && historyJournal.exists()) {
+				commanderSettings = migrateSettings(eclipsePreferencesSerializer.jsonAsSettings(historyJournal.readSnapshot()));
+				records = historyJournal.readJournal();
+			} else {
+				// settings were kept in the preferences before there was a journal, they become the first snapshot
+				commanderSettings = migrateSettings(eclipsePreferencesSerializer.loadSettings());
+				snapshotRequired = true;
+			}
 		} catch (Throwable e) {
 			logger.error("Unable to restore settings and history", e);
 		}
 		if (commanderSettings == null) commanderSettings = new CommanderSettings(featureId, new ArrayList<HistoryEntry>());
+		rebuildIndex();
+		for (JournalRecord record : records) {
+			replay(record);
+		}
+		historyChanged();
+		rebuildFrecencyBoosts();
 		return this;
 	}
 	
-	public String settingsAsJson() {
+	/*
+	 * Handlers keep a single store, should there be another one for the same settings
+	 * its delayed changes must be on disk before we read them.
+	 */
+	private void flushOtherStoresOfSameSettings() {
+		for (PersistedWorkingSet<?> store : storesWithUnsavedChanges) {
+			if (store != this && store.featureId.equals(featureId) && store.workspaceScope == workspaceScope) store.flush();
+		}
+	}
+	
+	private HistoryJournal makeHistoryJournal() {
+		IPath workingLocation = eclipsePreferencesSerializer.workingLocation();
+		if (workingLocation == null) return null;
+		return new HistoryJournal(workingLocation.toFile().toPath());
+	}
+	
+	void replay(JournalRecord record) {
+		if (record == null || record.operation == null) return;
+		switch (record.operation) {
+			case TOUCH:	replayTouch(record.key, record.time); break;
+			case FAVORITE: setPermanent(record.key, true); break;
+			case UNFAVORITE: setPermanent(record.key, false); break;
+			case REMOVE: remove(record.key); break;
+			case REMOVE_ALL_NON_FAVORITES: removeAllNonPermanent(); break;
+			case CHOOSE: rememberChoiceKey(record.query, record.key); break;
+		}
+	}
+	
+	/*
+	 * Compacting can be interrupted after the new snapshot is in place but before the journal is removed.
+	 * The snapshot then already holds the uses the journal records, they are skipped so they are not counted twice.
+	 */
+	private void replayTouch(HistoryKey historyKey, long time) {
+		final HistoryEntry historyEntry = historyIndex.get(historyKey);
+		if (historyEntry != null && time <= historyEntry.frecencyTime) return;
+		touch(historyKey, time);
+	}
+	
+	private void journal(Operation operation, HistoryKey historyKey) {
+		journal(operation, historyKey, 0, null);
+	}
+	
+	private void journal(Operation operation, HistoryKey historyKey, long time, String query) {
+		unsavedRecords.add(new JournalRecord(operation, historyKey, time, query));
+	}
+	
+	public synchronized String settingsAsJson() {
+		updatePersistedEntries();
 		return eclipsePreferencesSerializer.settingsAsJsonFormatted(commanderSettings);
 	}
 	
-	public void setSettingsFromJson(String jsonSettings) {
+	public synchronized void setSettingsFromJson(String jsonSettings) {
 		commanderSettings = migrateSettings(eclipsePreferencesSerializer.jsonAsSettings(jsonSettings));
-		historyChangedSinceCheck = true;
+		rebuildIndex();
+		snapshotRequired = true;
+		historyChanged();
+		rebuildFrecencyBoosts();
+	}
+	
+	/*
+	 * Entries are read one at a time so a large file never has to be held in memory as a whole.
+	 * Existing entries keep their place and settings, imported entries are placed behind them.
+	 * Favorites are always kept, other imported entries only as far as there is room left under the history limit.
+	 * The file is read without holding the store, which keeps serving history while a large file is imported,
+	 * and the entries read are merged with whatever the history is by then.
+	 */
+	public int mergeSettingsFromJson(Reader jsonSettings, IProgressMonitor monitor) throws IOException {
+		final Set<HistoryKey> existingKeys;
+		final int recentCapacity;
+		synchronized (this) {
+			existingKeys = new HashSet<>(historyIndex.keySet());
+			recentCapacity = historyLimit - recentIndex.size();
+		}
+		final LinkedHashMap<HistoryKey, HistoryEntry> importedEntries = new LinkedHashMap<>();
+		final List<HistoryKey> importedFavorites = new ArrayList<>();
+		int importedRecent = 0;
+		int entriesRead = 0;
+		
+		monitor.beginTask("Merging settings", IProgressMonitor.UNKNOWN);
+		JsonReader reader = new JsonReader(jsonSettings);
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if ("featureId".equals(name)) {
+				String importedFeatureId = reader.nextString();
+				if (!featureId.equals(importedFeatureId)) {
+					throw new RuntimeException("Settings featureId [" + importedFeatureId + "] does not match [" + featureId + "]");
+				}
+			} else if ("entries".equals(name)) {
+				reader.beginArray();
+				while (reader.hasNext()) {
+					if (monitor.isCanceled()) throw new OperationCanceledException();
+					HistoryEntry entry = readHistoryEntry(reader);
+					if (++entriesRead % 1000 == 0) monitor.subTask(entriesRead + " entries read");
+					
+					if (existingKeys.contains(entry.entryId)) {
+						if (entry.keepForever) importedFavorites.add(entry.entryId);
+					} else if (!importedEntries.containsKey(entry.entryId)) {
+						// the file is ordered most recent first, so later duplicates are older
+						if (entry.keepForever) {
+							importedEntries.put(entry.entryId, entry);
+						} else if (importedRecent < recentCapacity) {
+							importedEntries.put(entry.entryId, entry);
+							importedRecent++;
+						}
+					}
+				}
+				reader.endArray();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		
+		final int merged = mergeEntries(importedEntries, importedFavorites);
+		monitor.done();
+		return merged;
+	}
+	
+	private synchronized int mergeEntries(LinkedHashMap<HistoryKey, HistoryEntry> importedEntries, List<HistoryKey> importedFavorites) {
+		int merged = 0;
+		for (HistoryKey historyKey : importedFavorites) {
+			HistoryEntry existingEntry = historyIndex.get(historyKey);
+			if (existingEntry != null && existingEntry.keepForever) continue;
+			setPermanent(historyKey, true);
+			merged++;
+		}
+		// history may have changed while the file was read, entries used since then keep their place
+		importedEntries.keySet().removeAll(historyIndex.keySet());
+		int recentCapacity = historyLimit - recentIndex.size();
+		List<HistoryEntry> mergedEntries = new ArrayList<>();
+		for (HistoryEntry entry : importedEntries.values()) {
+			if (!entry.keepForever && recentCapacity-- <= 0) continue;
+			mergedEntries.add(entry);
+		}
+		Collections.reverse(mergedEntries);
+		merged += mergedEntries.size();
+		mergedEntries.addAll(historyIndex.values());
+		historyIndex.clear();
+		recentIndex.clear();
+		for (HistoryEntry entry : mergedEntries) {
+			historyIndex.put(entry.entryId, entry);
+			if (!entry.keepForever) recentIndex.put(entry.entryId, entry);
+		}
+		
+		snapshotRequired = true;
+		historyChanged();
+		rebuildFrecencyBoosts();
+		return merged;
+	}
+	
+	private HistoryEntry readHistoryEntry(JsonReader reader) throws IOException {
+		List<String> keys = new ArrayList<>();
+		boolean keepForever = false;
+		float frecency = 0;
+		long frecencyTime = 0;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if ("entryId".equals(name)) {
+				reader.beginObject();
+				while (reader.hasNext()) {
+					if ("keys".equals(reader.nextName())) {
+						reader.beginArray();
+						while (reader.hasNext()) keys.add(reader.nextString());
+						reader.endArray();
+					} else {
+						reader.skipValue();
+					}
+				}
+				reader.endObject();
+			} else if ("keepForever".equals(name)) {
+				keepForever = reader.nextBoolean();
+			} else if ("frecency".equals(name)) {
+				frecency = (float) reader.nextDouble();
+			} else if ("frecencyTime".equals(name)) {
+				frecencyTime = reader.nextLong();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		
+		HistoryEntry entry = new HistoryEntry(new HistoryKey(keys.toArray(new String[keys.size()])));
+		entry.keepForever = keepForever;
+		entry.frecency = frecency;
+		entry.frecencyTime = frecencyTime;
+		return entry;
+	}
+	
+	/*
+	 * The persisted entries are ordered most recent first and are only a snapshot of the index.
+	 */
+	private void rebuildIndex() {
+		historyIndex.clear();
+		recentIndex.clear();
+		List<HistoryEntry> persistedEntries = new ArrayList<>(commanderSettings.entries);
+		Collections.reverse(persistedEntries);
+		for (HistoryEntry entry : persistedEntries) {
+			historyIndex.put(entry.entryId, entry);
+			if (!entry.keepForever) recentIndex.put(entry.entryId, entry);
+		}
+	}
+	
+	private void updatePersistedEntries() {
+		commanderSettings.entries.clear();
+		commanderSettings.entries.addAll(historyIndex.values());
+		Collections.reverse(commanderSettings.entries);
 	}
 
 	private void checkAndClearOnChanged() {
@@ -65,14 +419,21 @@ public class PersistedWorkingSet<T> {
 		historyChangedSinceCheck = false;
 	}
 	
-	public List<HistoryEntry> getHistory() {
+	/*
+	 * Entries live on across history changes and keep their resolved item until resolveHistoryAgain,
+	 * so only entries which have not been resolved yet go through the resolver.
+	 */
+	public synchronized List<HistoryEntry> getHistory() {
 		checkAndClearOnChanged();
 		
 		if (!currentEntries.isEmpty()) return currentEntries;
 		
-		for (HistoryEntry entry : commanderSettings.entries) {
+		List<HistoryEntry> entries = new ArrayList<>(historyIndex.values());
+		Collections.reverse(entries);
+		for (HistoryEntry entry : entries) {
 			try {
-				entry.historyItem = historyItemResolver.apply(entry.entryId);
+				if (entry.historyItem == null)
+					entry.historyItem = historyItemResolver.apply(entry.entryId);
 				if (entry.historyItem != null)
 					currentEntries.add(entry);
 			} catch (Exception e) {
@@ -82,32 +443,141 @@ public class PersistedWorkingSet<T> {
 		return currentEntries;
 	}
 	
-	public HistoryEntry getHistoryEntry(T historyItem) {
-		HistoryEntry newHistoryEntry = makeEntry(historyItem);
-		final int index = commanderSettings.entries.indexOf(newHistoryEntry);
-		if (index > -1) return commanderSettings.entries.get(index);
-		return null;
+	/*
+	 * Entries are only resolved once history is asked for, so changing history never waits on the resolver.
+	 */
+	private void historyChanged() {
+		historyChangedSinceCheck = true;
 	}
 	
-	public PersistedWorkingSet<T> addToHistory(T historyItem) {
-		historyChangedSinceCheck = true;
-		HistoryEntry newHistoryEntry = makeEntry(historyItem);
-		final int existingIndex = commanderSettings.entries.indexOf(newHistoryEntry);
-		if (existingIndex > -1) newHistoryEntry = commanderSettings.entries.get(existingIndex);  // get existing so we keep other attributes.  We just want to move to first in the list
-		commanderSettings.entries.remove(newHistoryEntry);
-		commanderSettings.entries.add(0, newHistoryEntry);
-		
-		// count items that are not favorites and which have a valid item reference
-		if (commanderSettings.entries.stream().filter(entry->!entry.keepForever && entry.historyItem != null).count() > historyLimit) {
-			HistoryEntry lastRecentEntry = commanderSettings.entries.stream().filter(entry->!entry.keepForever && entry.historyItem != null).reduce((a, b) -> b).orElse(null);
-			if(lastRecentEntry != null) 
-				commanderSettings.entries.remove(commanderSettings.entries.indexOf(lastRecentEntry));
+	/*
+	 * The items known to the resolver have changed, such as a provider having been loaded again or for the first time.
+	 * Every entry is resolved again on the next request, so history never hands out an item of an earlier load
+	 * and entries whose items were not loaded before are tried again.
+	 */
+	public synchronized PersistedWorkingSet<T> resolveHistoryAgain() {
+		for (HistoryEntry entry : historyIndex.values()) {
+			entry.historyItem = null;
+		}
+		historyChanged();
+		rebuildFrecencyBoosts();
+		return this;
+	}
+	
+	/*
+	 * Boosts are kept by history key so ranking only needs a hash lookup per match and nothing has to be resolved.
+	 * A change to history updates the boosts of the entries it touched, decay of the others is brought up to date
+	 * whenever all boosts are rebuilt, on load and whenever the history is resolved again.
+	 */
+	private void rebuildFrecencyBoosts() {
+		final long now = System.currentTimeMillis();
+		Map<HistoryKey, Integer> boosts = new ConcurrentHashMap<>(historyIndex.size());
+		for (HistoryEntry entry : historyIndex.values()) {
+			int boost = entry.boostAt(now);
+			if (boost > 0) boosts.put(entry.entryId, boost);
+		}
+		frecencyBoosts = boosts;
+	}
+	
+	private void updateFrecencyBoost(HistoryEntry entry, long now) {
+		int boost = entry.boostAt(now);
+		if (boost > 0) frecencyBoosts.put(entry.entryId, boost);
+		else frecencyBoosts.remove(entry.entryId);
+	}
+	
+	/*
+	 * Resolves the boost of the items in history, items never used have none.
+	 */
+	public ToIntFunction<T> frecencyBoosts() {
+		final Map<HistoryKey, Integer> boosts = frecencyBoosts;
+		if (boosts.isEmpty()) return item -> 0;
+		return item -> boosts.getOrDefault(historyItemIdResolver.apply(item), 0);
+	}
+	
+	public synchronized HistoryEntry getHistoryEntry(T historyItem) {
+		return historyIndex.get(historyItemIdResolver.apply(historyItem));
+	}
+	
+	public synchronized PersistedWorkingSet<T> addToHistory(T historyItem) {
+		final HistoryKey historyKey = historyItemIdResolver.apply(historyItem);
+		final long time = System.currentTimeMillis();
+		HistoryEntry historyEntry = touch(historyKey, time);
+		if (historyEntry.historyItem == null) historyEntry.historyItem = historyItem;
+		journal(Operation.TOUCH, historyKey, time, null);
+		historyChanged();
+		return this;
+	}
+	
+	private HistoryEntry touch(HistoryKey historyKey, long time) {
+		HistoryEntry historyEntry = historyIndex.remove(historyKey);  // keep existing so we keep other attributes.  We just want to move it to most recent
+		if (historyEntry == null) historyEntry = new HistoryEntry(historyKey);
+		historyEntry.recordUse(time);
+		historyIndex.put(historyKey, historyEntry);
+		updateFrecencyBoost(historyEntry, time);
+		
+		if (!historyEntry.keepForever) {
+			recentIndex.remove(historyKey);
+			recentIndex.put(historyKey, historyEntry);
 		}
+		
+		evictLeastRecent();
+		return historyEntry;
+	}
+	
+	private void evictLeastRecent() {
+		// favorites are not counted against the limit
+		while (recentIndex.size() > historyLimit) {
+			Iterator<HistoryKey> leastRecent = recentIndex.keySet().iterator();
+			HistoryKey evictedKey = leastRecent.next();
+			historyIndex.remove(evictedKey);
+			frecencyBoosts.remove(evictedKey);
+			leastRecent.remove();
+		}
+	}
+	
+	/*
+	 * Remembers the item last chosen for a query so it can be shown first the next time the same query is typed.
+	 * Only the most recent queries are kept.
+	 */
+	public synchronized PersistedWorkingSet<T> rememberChoice(String queryKey, T historyItem) {
+		if (queryKey.isEmpty()) return this;
+		final HistoryKey historyKey = historyItemIdResolver.apply(historyItem);
+		rememberChoiceKey(queryKey, historyKey);
+		journal(Operation.CHOOSE, historyKey, 0, queryKey);
 		return this;
 	}
 	
-	public PersistedWorkingSet<T> setContentMode(String mode) {
+	private void rememberChoiceKey(String queryKey, HistoryKey historyKey) {
+		if (queryKey == null) return;
+		final LinkedHashMap<String, HistoryKey> queryChoices = commanderSettings.queryChoices;
+		queryChoices.remove(queryKey);
+		queryChoices.put(queryKey, historyKey);
+		while (queryChoices.size() > QUERY_CHOICE_LIMIT) {
+			Iterator<String> oldestQuery = queryChoices.keySet().iterator();
+			oldestQuery.next();
+			oldestQuery.remove();
+		}
+	}
+	
+	/*
+	 * Only choices still in history are recalled.
+	 */
+	public synchronized T recallChoice(String queryKey) {
+		final HistoryKey historyKey = commanderSettings.queryChoices.get(queryKey);
+		if (historyKey == null) return null;
+		final HistoryEntry entry = historyIndex.get(historyKey);
+		if (entry == null) return null;
+		try {
+			if (entry.historyItem == null) entry.historyItem = historyItemResolver.apply(entry.entryId);
+		} catch (Exception e) {
+			logger.error("unable to restore history entry " + entry.entryId,  e);
+		}
+		return entry.historyItem;
+	}
+	
+	public synchronized PersistedWorkingSet<T> setContentMode(String mode) {
 		commanderSettings.contentMode = mode;
+		snapshotRequired = true;
 		return this;
 	}
 	
@@ -118,8 +588,9 @@ public class PersistedWorkingSet<T> {
 		return contentMode;
 	}
 	
-	public PersistedWorkingSet<T> setAutoCloseFocusLost(boolean autoClose) {
+	public synchronized PersistedWorkingSet<T> setAutoCloseFocusLost(boolean autoClose) {
 		commanderSettings.autoCloseFocusLost = autoClose;
+		snapshotRequired = true;
 		return this;
 	}
 	
@@ -127,48 +598,75 @@ public class PersistedWorkingSet<T> {
 		return commanderSettings.autoCloseFocusLost;
 	}
 	
-	public PersistedWorkingSet<T> setHistoryPermanent(T historyItem, boolean permanent) {
-		historyChangedSinceCheck = true;
-		HistoryEntry entry = makeEntry(historyItem);
-		int index = commanderSettings.entries.indexOf(entry);
-		if (index == -1) {
+	public synchronized PersistedWorkingSet<T> setHistoryPermanent(T historyItem, boolean permanent) {
+		final HistoryKey historyKey = historyItemIdResolver.apply(historyItem);
+		HistoryEntry historyEntry = setPermanent(historyKey, permanent);
+		if (historyEntry != null && historyEntry.historyItem == null) historyEntry.historyItem = historyItem;
+		journal(permanent ? Operation.FAVORITE : Operation.UNFAVORITE, historyKey);
+		historyChanged();
+		return this;
+	}
+	
+	private HistoryEntry setPermanent(HistoryKey historyKey, boolean permanent) {
+		HistoryEntry entry = historyIndex.get(historyKey);
+		if (entry == null) {
+			if (!permanent) return null;
+			entry = new HistoryEntry(historyKey);
 			entry.keepForever = true;
-			commanderSettings.entries.add(entry);
-			return this;
+			historyIndex.put(historyKey, entry);
+			return entry;
 		}
-		entry = commanderSettings.entries.get(index);
 		entry.keepForever = permanent;
-		return this;
+		// an entry no longer a favorite is treated as most recent for eviction
+		if (permanent) {
+			recentIndex.remove(historyKey);
+		} else {
+			recentIndex.put(historyKey, entry);
+			evictLeastRecent();
+		}
+		return entry;
 	}
 	
-	public PersistedWorkingSet<T> removeHistory(T historyItem) {
-		historyChangedSinceCheck = true;
-		commanderSettings.entries.remove(makeEntry(historyItem));
+	public synchronized PersistedWorkingSet<T> removeHistory(T historyItem) {
+		final HistoryKey historyKey = historyItemIdResolver.apply(historyItem);
+		remove(historyKey);
+		journal(Operation.REMOVE, historyKey);
+		historyChanged();
 		return this;
 	}
 	
-	public PersistedWorkingSet<T> removeAllNonPermanentHistory() {
-		historyChangedSinceCheck = true;
-		commanderSettings.entries.removeIf(item -> !item.keepForever);
+	private void remove(HistoryKey historyKey) {
+		historyIndex.remove(historyKey);
+		recentIndex.remove(historyKey);
+		frecencyBoosts.remove(historyKey);
+	}
+	
+	public synchronized PersistedWorkingSet<T> removeAllNonPermanentHistory() {
+		removeAllNonPermanent();
+		journal(Operation.REMOVE_ALL_NON_FAVORITES, null);
+		historyChanged();
 		return this;
 	}
 	
+	private void removeAllNonPermanent() {
+		historyIndex.keySet().removeAll(recentIndex.keySet());
+		frecencyBoosts.keySet().removeAll(recentIndex.keySet());
+		recentIndex.clear();
+	}
+	
 	public class CommanderSettings {
 		private String featureId;
 		private int version = 2;
 		private String contentMode;
 		private boolean autoCloseFocusLost = false;
 		private final List<HistoryEntry> entries;
+		private LinkedHashMap<String, HistoryKey> queryChoices = new LinkedHashMap<>();
 		public CommanderSettings(String featureId, List<HistoryEntry> entries) {
 			this.featureId = featureId;
 			this.entries = entries;
 		}
 	}
 	
-	private HistoryEntry makeEntry(T item) {
-		return new HistoryEntry(historyItemIdResolver.apply(item));
-	}
-	
 	public static class HistoryKey {
 		public final List<String> keys;
 		public HistoryKey(String ... keys) {
@@ -191,11 +689,31 @@ public class PersistedWorkingSet<T> {
 	public class HistoryEntry {
 		public final HistoryKey entryId;
 		public boolean keepForever = false;
+		// use count decayed by half every half life, as of frecencyTime
+		private float frecency = 0;
+		private long frecencyTime = 0;
 		private transient T historyItem;
 		public HistoryEntry(HistoryKey entryId) {
 			this.entryId = entryId;
 		}
 		
+		private void recordUse(long time) {
+			if (time > frecencyTime) {
+				frecency = frecencyAt(time);
+				frecencyTime = time;
+			}
+			frecency += 1;
+		}
+		
+		public float frecencyAt(long time) {
+			if (time <= frecencyTime) return frecency;
+			return (float) (frecency * Math.pow(0.5, (double) (time - frecencyTime) / FRECENCY_HALF_LIFE));
+		}
+		
+		private int boostAt(long time) {
+			return Math.round(frecencyAt(time) * FRECENCY_BOOST_SCALE);
+		}
+		
 		public T getHistoryItem() {
 			return historyItem;
 		}
@@ -231,6 +749,9 @@ public class PersistedWorkingSet<T> {
 			settings.version = 2;
 			settings.autoCloseFocusLost = false; // existing default behavior
 		}
+		if (settings.queryChoices == null) {
+			settings.queryChoices = new LinkedHashMap<>(); // settings saved before choices were remembered
+		}
 		if (!settings.featureId.equals(this.featureId)) {
 			throw new RuntimeException("Settings featureId [" + settings.featureId + "] does not match [" + this.featureId + "]");
 		}
@@ -0,0 +1,41 @@
+package dakara.eclipse.plugin.kavi.picklist;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.swt.widgets.Display;
+
+/*
+ * Runs an update on the display thread at most once per frame, however often it is requested and from whichever thread.
+ * Requests made while an update is pending are merged into it, so the update must apply the newest state when it runs.
+ */
+public class FrameCoalescer {
+	static final long FRAME_INTERVAL = 16;
+	private final Display display;
+	private final Runnable update;
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+	private long lastFrameTime = 0;
+
+	public FrameCoalescer(Display display, Runnable update) {
+		this.display = display;
+		this.update = update;
+	}
+
+	public void request() {
+		if (!scheduled.compareAndSet(false, true)) return;
+		if (display.isDisposed()) return;
+		display.asyncExec(this::runFrame);
+	}
+
+	private void runFrame() {
+		final long now = System.currentTimeMillis();
+		final long untilNextFrame = lastFrameTime + FRAME_INTERVAL - now;
+		if (untilNextFrame > 0) {
+			display.timerExec((int) untilNextFrame, this::runFrame);
+			return;
+		}
+		lastFrameTime = now;
+		// requests made by the update itself get a frame of their own
+		scheduled.set(false);
+		update.run();
+	}
+}
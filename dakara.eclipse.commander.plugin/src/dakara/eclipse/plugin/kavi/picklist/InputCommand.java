@@ -45,6 +45,15 @@ public class InputCommand {
 		return chars;
 	}
 	
+	/*
+	 * The filter part of the input without fast select and ignoring case, used to recognize a repeated query.
+	 */
+	public String queryKey() {
+		int fastSelectStart = filterText.indexOf('/');
+		String filterPart = fastSelectStart < 0 ? filterText : filterText.substring(0, fastSelectStart);
+		return filterPart.trim().toLowerCase();
+	}
+	
 	public static InputCommand parse(String inputText) {
 		return InputCommand.makeInputCommand(inputText);
 	}
@@ -50,6 +50,11 @@ public class InternalCommandContextProvider {
 		return this;
 	}	
 	
+	public <T> InternalCommandContextProvider addCommand(String mode, Function<ContextCommand, String> nameResolver, BiConsumer<InternalContentProviderProxy<T>, ContextCommand> handleSelections) {
+		commands.add(new ContextCommand(nameResolver, mode, handleSelections));
+		return this;
+	}	
+	
 	public <T> InternalCommandContextProvider addChoice(String parentName, String name, Consumer<List<T>> handleSelections) {
 		// TODO find parent, add choice as child
 		//commands.add(new ContextCommand<>(name, mode, handleSelections));
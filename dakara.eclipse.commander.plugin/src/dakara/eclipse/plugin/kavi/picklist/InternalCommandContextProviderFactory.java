@@ -1,5 +1,7 @@
 package dakara.eclipse.plugin.kavi.picklist;
 import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -7,7 +9,9 @@ import java.util.List;
 import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.dialogs.ProgressMonitorDialog;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.dnd.Clipboard;
 import org.eclipse.swt.dnd.TextTransfer;
@@ -177,6 +181,35 @@ public class InternalCommandContextProviderFactory {
 				logger.error("unable to import JSON", e);
 				MessageDialog.openError(kaviPickList.getShell(), "Import Failed", e.getMessage());
 			}
+		});
+		
+		contextProvider.addCommand("working", "Settings: Import and Merge from File...", (currentProvider, command) -> {
+		    FileDialog dialog = new FileDialog(kaviPickList.getShell(), SWT.OPEN);
+		    dialog.setFilterExtensions(new String [] {"*.json"});
+		    dialog.setFileName(settingsFilename);
+		    String filename = dialog.open();
+		    if (filename == null) return;
+		    
+		    try {
+				new ProgressMonitorDialog(kaviPickList.getShell()).run(true, true, monitor -> {
+					try (Reader reader = Files.newBufferedReader(Paths.get(filename), StandardCharsets.UTF_8)) {
+						historyStore.mergeSettingsFromJson(reader, monitor);
+					} catch (OperationCanceledException e) {
+						throw new InterruptedException();
+					} catch (IOException | RuntimeException e) {
+						throw new InvocationTargetException(e);
+					}
+				});
+				historyStore.save();
+				currentProvider.clearSelections();
+				currentProvider.clearCursor();
+				kaviPickList.togglePreviousProvider().refreshFromContentProvider();
+			} catch (InvocationTargetException e) {
+				logger.error("unable to merge JSON", e.getCause());
+				MessageDialog.openError(kaviPickList.getShell(), "Import Failed", e.getCause().getMessage());
+			} catch (InterruptedException e) {
+				// cancelled, nothing was merged
+			}
 		});			
 	}
 	
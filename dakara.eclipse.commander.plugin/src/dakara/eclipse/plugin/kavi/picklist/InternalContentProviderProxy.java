@@ -18,7 +18,7 @@ import dakara.eclipse.plugin.stringscore.RankedItem;
 
 public class InternalContentProviderProxy<U> {
 	public enum RowState {
-		SELECTED(1), CURSOR(2);
+		SELECTED(1), CURSOR(2), DISABLED(4);
 
 		public final int value;
 
@@ -36,12 +36,16 @@ public class InternalContentProviderProxy<U> {
 	private final Function<InputState, List<RankedItem<U>>> listContentProvider;
 	public final String name;
 	private KaviListColumns<U> kaviListColumns;
-	private InputState previousInputState = null;
+	private volatile InputState previousInputState = null;
+	private volatile boolean contentChanged = false;
 	private boolean restoreFilterOnChange = false;
 	private boolean showAllWhenNoFilter = true;
 	private Function<Stream<RankedItem<U>>, Stream<RankedItem<U>>> sortResolverFn;
 	private final Map<String, Function<Stream<RankedItem<U>>, Stream<RankedItem<U>>>> filterResolvers = new HashMap<>();
 	private Function<InputCommand, Integer> debounceTimeProvider;
+	private Function<String, U> queryChoiceRecall;
+	private BiConsumer<String, U> queryChoiceRecorder;
+	private Function<U, Boolean> enabledProvider;
 
 	public InternalContentProviderProxy(@SuppressWarnings("rawtypes") KaviList kaviList, String name,	Function<InputState, List<RankedItem<U>>> listContentProvider) {
 		this.name = name;
@@ -72,6 +76,23 @@ public class InternalContentProviderProxy<U> {
 		return this;
 	}
 	
+	/*
+	 * The item last chosen for a query is shown as the first row when the same query is entered again.
+	 */
+	public InternalContentProviderProxy<U> setQueryChoiceMemo(Function<String, U> queryChoiceRecall, BiConsumer<String, U> queryChoiceRecorder) {
+		this.queryChoiceRecall = queryChoiceRecall;
+		this.queryChoiceRecorder = queryChoiceRecorder;
+		return this;
+	}
+	
+	/*
+	 * Asked only for rows being drawn, so providers can evaluate enablement lazily
+	 */
+	public InternalContentProviderProxy<U> setEnabledProvider(Function<U, Boolean> enabledProvider) {
+		this.enabledProvider = enabledProvider;
+		return this;
+	}
+	
 	public int calculateDebounceTime(InputCommand command) {
 		if (debounceTimeProvider == null) return 0;
 		return debounceTimeProvider.apply(command);
@@ -97,23 +118,90 @@ public class InternalContentProviderProxy<U> {
 		return previousInputState.inputCommand;
 	}
 	
-	public InternalContentProviderProxy<U> updateTableEntries(InputState inputState) {
-		final boolean filterChanged = filterChanged(inputState);
-		
+	/*
+	 * Ranks the list for the input without changing what is shown, so it can run off the UI thread.
+	 * Returns null when neither the filter nor the content has changed since the entries shown.
+	 */
+	public List<RankedItem<U>> rankTableEntries(InputState inputState, boolean filterChanged) {
+		if (!showAllWhenNoFilter && inputState.inputCommand.filterText.length() == 0 && !inputState.inputCommand.fastSelect) return new ArrayList<>();
+		if (!filterChanged && !contentChanged) return null;
+		return sortAndFilter(pinRecalledChoice(inputState.inputCommand, listContentProvider.apply(inputState)));
+	}
+	
+	/*
+	 * Shows entries ranked for the input, on the UI thread.
+	 * Null entries keep those already shown.
+	 */
+	public InternalContentProviderProxy<U> showTableEntries(List<RankedItem<U>> tableEntries, InputState inputState, boolean filterChanged) {
 		if (filterChanged) rowCursorIndex = 0;
+		if (tableEntries != null) {
+			contentChanged = false;
+			this.tableEntries = tableEntries;
+		}
+		previousInputState = inputState;
+		return this;
+	}
+	
+	/*
+	 * The list behind the content provider has changed, so the next update ranks it again even if the filter has not changed.
+	 */
+	public InternalContentProviderProxy<U> contentChanged() {
+		contentChanged = true;
+		return this;
+	}
+	
+	/*
+	 * Only the recalled choice for a changed query, so it can be shown before the full list has been ranked.
+	 * Returns null when there is nothing to show early.
+	 */
+	public List<RankedItem<U>> recalledChoiceEntries(InputState inputState) {
+		if (!isFilterChanged(inputState)) return null;
+		final U choice = recallChoice(inputState.inputCommand);
+		if (choice == null) return null;
 		
-		if (!showAllWhenNoFilter && inputState.inputCommand.filterText.length() == 0 && !inputState.inputCommand.fastSelect) setTableEntries(new ArrayList<>());
-		else if (!filterChanged) return this;
-		else setTableEntries(listContentProvider.apply(inputState));
+		List<RankedItem<U>> choiceEntries = new ArrayList<>();
+		choiceEntries.add(new RankedItem<>(choice));
+		return choiceEntries;
+	}
+	
+	public InternalContentProviderProxy<U> showRecalledChoice(List<RankedItem<U>> choiceEntries) {
+		rowCursorIndex = 0;
+		this.tableEntries = choiceEntries;
 		return this;
 	}
 	
+	private List<RankedItem<U>> pinRecalledChoice(InputCommand inputCommand, List<RankedItem<U>> rankedEntries) {
+		final U choice = recallChoice(inputCommand);
+		if (choice == null) return rankedEntries;
+		
+		List<RankedItem<U>> pinnedEntries = new ArrayList<>(rankedEntries.size());
+		for (RankedItem<U> rankedItem : rankedEntries) {
+			if (rankedItem.dataItem.equals(choice)) pinnedEntries.add(0, rankedItem);
+			else pinnedEntries.add(rankedItem);
+		}
+		// the choice no longer matches the query
+		if (pinnedEntries.isEmpty() || !pinnedEntries.get(0).dataItem.equals(choice)) return rankedEntries;
+		return pinnedEntries;
+	}
+	
+	private U recallChoice(InputCommand inputCommand) {
+		if (queryChoiceRecall == null || inputCommand.fastSelect) return null;
+		final String queryKey = inputCommand.queryKey();
+		if (queryKey.isEmpty()) return null;
+		return queryChoiceRecall.apply(queryKey);
+	}
+	
 	public InternalContentProviderProxy<U> refreshFromContentProvider() {
 		setTableEntries(listContentProvider.apply(previousInputState));
 		return this;
 	}
 	
 	public InternalContentProviderProxy<U> setTableEntries(List<RankedItem<U>> tableEntries) {
+		this.tableEntries = sortAndFilter(tableEntries);
+		return this;
+	}
+	
+	private List<RankedItem<U>> sortAndFilter(List<RankedItem<U>> tableEntries) {
 		// TODO optimize and only create a stream when necessary
 		Stream<RankedItem<U>> tableStream = tableEntries.parallelStream();
 		if (sortResolverFn != null) {
@@ -122,8 +210,7 @@ public class InternalContentProviderProxy<U> {
 		
 		tableStream = applyFilters(tableStream);
 		
-		this.tableEntries = tableStream.collect(Collectors.toList());
-		return this;
+		return tableStream.collect(Collectors.toList());
 	}
 	
 	private Stream<RankedItem<U>> applyFilters(Stream<RankedItem<U>> stream) {
@@ -270,12 +357,19 @@ public class InternalContentProviderProxy<U> {
 		int state = 0;
 		if (selectedEntries.contains(item))
 			state |= RowState.SELECTED.value;
-		if (rowCursorIndex > -1 && tableEntries.indexOf(item) == rowCursorIndex)
+		// compare by position rather than searching the list, this is asked for every row painted
+		if (rowCursorIndex > -1 && rowCursorIndex < tableEntries.size() && tableEntries.get(rowCursorIndex) == item)
 			state |= RowState.CURSOR.value;
+		if (!isEnabled(item))
+			state |= RowState.DISABLED.value;
 
 		return state;
 	}
 
+	private boolean isEnabled(RankedItem<U> item) {
+		return enabledProvider == null || enabledProvider.apply(item.dataItem);
+	}
+
 	public InternalContentProviderProxy<U> toggleViewOnlySelected() {
 		if (!filterResolvers.containsKey("filterSelected"))
 			filterResolvers.put("filterSelected", stream -> stream.filter(item -> selectedEntries.contains(item)));
@@ -299,11 +393,16 @@ public class InternalContentProviderProxy<U> {
 		
 		List<RankedItem<U>> tableEntries = getTableEntries();
 		if (tableEntries.isEmpty()) return isResolved;
+		// disabled items are listed but can not be chosen, the list stays open
+		if (selectedElement != null && !isEnabled(selectedElement)) return isResolved;
 		
+		if (queryChoiceRecorder != null && previousInputState != null && selectedElement != null) {
+			queryChoiceRecorder.accept(previousInputState.inputCommand.queryKey(), selectedElement.dataItem);
+		}
 		if (setMultiResolvedAction != null)  {
 			if (selectedEntries.size() == 0 && rowCursorIndex > -1) toggleSelectedState(tableEntries.get(rowCursorIndex));
 			isResolved = true;
-			setMultiResolvedAction.accept(selectedEntries.stream().map(rankedItem -> rankedItem.dataItem).collect(Collectors.toList()));
+			setMultiResolvedAction.accept(selectedEntries.stream().filter(this::isEnabled).map(rankedItem -> rankedItem.dataItem).collect(Collectors.toList()));
 		}
 		if (selectedElement != null && resolvedActionProvider != null) {
 			isResolved = true;
@@ -334,14 +433,10 @@ public class InternalContentProviderProxy<U> {
 		return isResolved;
 	}	
 	
-	public boolean filterChanged(InputState inputState)	{
-		if (previousInputState == null) {
-			previousInputState = inputState;
-			return true;
-		}
-		boolean filterChanged = !inputState.inputCommand.isFilterEqual(previousInputState.inputCommand);
-		previousInputState = inputState;
-		return filterChanged;
+	public boolean isFilterChanged(InputState inputState)	{
+		final InputState shownInputState = previousInputState;
+		if (shownInputState == null) return true;
+		return !inputState.inputCommand.isFilterEqual(shownInputState.inputCommand);
 	}
 	
 	public KaviListColumns<U> getKaviListColumns() {
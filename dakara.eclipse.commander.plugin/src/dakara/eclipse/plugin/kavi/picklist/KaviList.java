@@ -1,10 +1,12 @@
 package dakara.eclipse.plugin.kavi.picklist;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 
@@ -34,8 +36,6 @@ import dakara.eclipse.plugin.baseconverter.Base26AlphaBijectiveConverter;
 import dakara.eclipse.plugin.command.Constants;
 import dakara.eclipse.plugin.log.EclipsePluginLogger;
 import dakara.eclipse.plugin.stringscore.RankedItem;
-import io.reactivex.disposables.Disposable;
-import io.reactivex.subjects.PublishSubject;
 
 public class KaviList<T> {
 	private EclipsePluginLogger logger = new EclipsePluginLogger(Constants.BUNDLE_ID);
@@ -54,12 +54,20 @@ public class KaviList<T> {
 
 	private TableViewer tableViewer;
 	private Table table;
+	private Text filterText;
 	private Display display;
 	private LocalResourceManager resourceManager = new LocalResourceManager(JFaceResources.getResources());
 	
-	private PublishSubject<String> subjectFilter = PublishSubject.create();
-	private Disposable subscriber;
-	private int debounceTime = -1;
+	private final RefreshPipeline refreshPipeline = new RefreshPipeline("Kavi list refresh", this::handleRefresh);
+	// table, status and fast select updates are applied together once per frame, using only the newest state
+	private FrameCoalescer frameUpdates;
+	private final AtomicReference<PendingRefresh<T>> pendingRefresh = new AtomicReference<>();
+	private boolean cursorMoved = false;
+	// row the cursor was last painted on, so a cursor move only repaints the row it left and the one it entered
+	private int paintedCursorIndex = -1;
+	private List<RankedItem<T>> paintedEntries = Collections.emptyList();
+	// row state each row was last painted with, by row index
+	private final Map<Integer, Integer> paintedRowStates = new HashMap<>();
 
 	public KaviList(KaviPickListDialog<T> rapidInputPickList) {
 		this.rapidInputPickList = rapidInputPickList;
@@ -81,19 +89,30 @@ public class KaviList<T> {
 	}
 
 	public void requestRefresh(String filter) {
-		int newDebounceTime = contentProvider().calculateDebounceTime(InputCommand.parse(filter));
-		if (debounceTime != newDebounceTime) {
-			// TODO - when we dispose, there might have been work in progress by the subscriber
-			// creating a new subscriber will not know about the unfinished work
-			// so an event will get sent to the subscriber possibly causing parallel execution
-			// work around is to synchronize the calling method handleRefresh
-			// but I would like to find out if there is a better rxJava way of handling this.
-			if (subscriber != null) subscriber.dispose();
-			subscriber = subjectFilter.debounce(newDebounceTime, TimeUnit.MILLISECONDS).subscribe(f -> handleRefresh(f));		
-			debounceTime = newDebounceTime;
+		refreshPipeline.request(filter, contentProvider().calculateDebounceTime(InputCommand.parse(filter)));
+	}
+	
+	/*
+	 * Content providers have more items to show, rank them again using the current filter.
+	 * Must be called on the display thread.
+	 */
+	@SuppressWarnings("rawtypes")
+	public void refreshContent() {
+		if (filterText == null || filterText.isDisposed()) return;
+		for (InternalContentProviderProxy contentProvider : listContentProviders.values()) {
+			contentProvider.contentChanged();
+		}
+		requestRefresh(filterText.getText());
+	}
+	
+	/*
+	 * Forget the filter, selections and cursor of every content provider, as if the list had just been created
+	 */
+	@SuppressWarnings("rawtypes")
+	public void resetState() {
+		for (InternalContentProviderProxy contentProvider : listContentProviders.values()) {
+			contentProvider.clearSelections().clearPreviousInputCommand();
 		}
-
-		subjectFilter.onNext(filter);
 	}
 	
 	public void setFastSelectAction(BiConsumer<Set<RankedItem<T>>, InputCommand> fastSelectAction) {
@@ -101,39 +120,173 @@ public class KaviList<T> {
 	}
 
 	/*
-	 * This will be executed on rxJava thread due to debouncing
-	 * We will handle the computations of filtering on the background thread
-	 * and must let SWT handle the table updates on the UI thread.
-	 * 
-	 * This is synchronized due to disposing of the rxJava subscriber can result
-	 * in the new subscriber getting called before the previous subscriber has finished work.
+	 * Runs on the refresh pipeline's worker, one refresh at a time.
+	 * Filtering is computed here into lists of its own. They are shown in the list and the table on the UI thread
+	 * with the next frame, unless a newer refresh has been requested by then.
 	 */
-	private synchronized void handleRefresh(String filter) {
+	private void handleRefresh(String filter, RefreshPipeline.Ticket ticket) {
 		try {
 			if (table == null) return;
+			final InternalContentProviderProxy<T> contentProvider = contentProvider();
 			final InputCommand inputCommand = InputCommand.parse(filter);
-			InputState inputState = new InputState(inputCommand, contentProvider(), previousProvider);
-			List<RankedItem<T>> tableEntries = contentProvider().updateTableEntries(inputState).getTableEntries();
-			if (contentChanged(tableEntries)) {
-				alphaColumnConverter = new Base26AlphaBijectiveConverter(tableEntries.size());
-				display.asyncExec(() -> doTableRefresh(tableEntries));
+			InputState inputState = new InputState(inputCommand, contentProvider, previousProvider);
+			final boolean filterChanged = contentProvider.isFilterChanged(inputState);
+			List<RankedItem<T>> recalledEntries = contentProvider.recalledChoiceEntries(inputState);
+			if (recalledEntries != null) {
+				// show the remembered choice right away, the rest of the list follows once ranked
+				pendingRefresh.set(new PendingRefresh<>(contentProvider, recalledEntries, null, false, ticket));
+				frameUpdates.request();
 			}
-			
-			display.asyncExec(() -> fastSelectItem(inputCommand));
+			if (ticket.isStale()) return;
+			List<RankedItem<T>> tableEntries = contentProvider.rankTableEntries(inputState, filterChanged);
+			if (ticket.isStale()) return;
+			pendingRefresh.set(new PendingRefresh<>(contentProvider, tableEntries, inputState, filterChanged, ticket));
+			frameUpdates.request();
 		} catch (Throwable e) {
 			logger.error("Problem occurred refreshing content with filter '" +filter+ "'", e);
 		}
 	}
 	
+	private void applyFrameUpdates() {
+		if (table.isDisposed()) return; // This can happen due to async exec.  Dialog closes before we get here.
+		
+		final PendingRefresh<T> refresh = pendingRefresh.getAndSet(null);
+		if (refresh != null && !refresh.ticket.isStale() && refresh.contentProvider == contentProvider()) {
+			if (refresh.inputState == null) {
+				applyTableEntries(contentProvider().showRecalledChoice(refresh.tableEntries).getTableEntries());
+			} else {
+				applyTableEntries(contentProvider().showTableEntries(refresh.tableEntries, refresh.inputState, refresh.filterChanged).getTableEntries());
+				fastSelectItem(refresh.inputState.inputCommand);
+			}
+		}
+		if (cursorMoved) {
+			cursorMoved = false;
+			final int cursorIndex = contentProvider().getCursorIndex();
+			if (cursorIndex >= 0 && cursorIndex < table.getItemCount()) table.showItem(table.getItem(cursorIndex));
+			clearRow(paintedCursorIndex);
+			clearRow(cursorIndex);
+			paintedCursorIndex = cursorIndex;
+		}
+	}
+	
+	/*
+	 * Cleared rows are asked for again through the lazy content provider, only when they are visible
+	 */
+	private void clearRow(int rowIndex) {
+		if (rowIndex >= 0 && rowIndex < table.getItemCount()) {
+			table.clear(rowIndex);
+			paintedRowStates.remove(rowIndex);
+		}
+	}
+	
+	private void clearRows(int fromRow, int toRow) {
+		table.clear(fromRow, toRow);
+		paintedRowStates.keySet().removeIf(row -> row >= fromRow && row <= toRow);
+	}
+	
+	/*
+	 * Applies a selection change and repaints only the visible rows whose state it flipped.
+	 * Rows outside of the viewport are cleared without painting and get their new state once scrolled to.
+	 */
+	private void changeRowStates(Runnable stateChange) {
+		final List<RankedItem<T>> tableEntries = contentProvider().getTableEntries();
+		final int itemCount = Math.min(table.getItemCount(), tableEntries.size());
+		final int topIndex = Math.min(table.getTopIndex(), itemCount);
+		final int visibleCount = Math.min(numberOfItemsVisible(table) + 1, itemCount - topIndex);
+		
+		final int[] previousStates = new int[visibleCount];
+		for (int row = 0; row < visibleCount; row++) {
+			previousStates[row] = contentProvider().itemRowState(tableEntries.get(topIndex + row));
+		}
+		stateChange.run();
+		for (int row = 0; row < visibleCount; row++) {
+			if (contentProvider().itemRowState(tableEntries.get(topIndex + row)) != previousStates[row]) clearRow(topIndex + row);
+		}
+		if (topIndex > 0) clearRows(0, topIndex - 1);
+		if (topIndex + visibleCount < itemCount) clearRows(topIndex + visibleCount, itemCount - 1);
+		paintedCursorIndex = contentProvider().getCursorIndex();
+	}
+	
+	/*
+	 * Entries ranked on the worker waiting for the next frame.
+	 * Without an input state they only preview the recalled choice.
+	 */
+	private static class PendingRefresh<T> {
+		final InternalContentProviderProxy<T> contentProvider;
+		final List<RankedItem<T>> tableEntries;
+		final InputState inputState;
+		final boolean filterChanged;
+		final RefreshPipeline.Ticket ticket;
+		
+		PendingRefresh(InternalContentProviderProxy<T> contentProvider, List<RankedItem<T>> tableEntries, InputState inputState, boolean filterChanged, RefreshPipeline.Ticket ticket) {
+			this.contentProvider = contentProvider;
+			this.tableEntries = tableEntries;
+			this.inputState = inputState;
+			this.filterChanged = filterChanged;
+			this.ticket = ticket;
+		}
+	}
+	
+	private void applyTableEntries(List<RankedItem<T>> tableEntries) {
+		if (this.table.isDisposed()) return; // This can happen due to async exec.  Dialog closes before we get here.
+		if (!contentChanged(tableEntries)) return;
+		final int previousFastSelectWidth = alphaColumnConverter.getNumberOfCharacters();
+		alphaColumnConverter = new Base26AlphaBijectiveConverter(tableEntries.size());
+		// fast select labels of every row change when the number of characters does
+		if (alphaColumnConverter.getNumberOfCharacters() != previousFastSelectWidth) paintedEntries = Collections.emptyList();
+		doTableRefresh(tableEntries);
+	}
+	
 	private void doTableRefresh(List<RankedItem<T>> tableEntries) {
 		if (tableEntries == null) return;
 		if (this.table.isDisposed()) return; // This can happen due to async exec.  Dialog closes before we get here.
 		
 		changedAction.accept(contentProvider().getTableEntries(), contentProvider().getSelectedEntries());
-		table.removeAll();
-		table.setItemCount(contentProvider().getTableEntries().size());	
+		contentProvider().getKaviListColumns().resultsChanged();
+		diffTableRows(contentProvider().getTableEntries());
 	}
 	
+	/*
+	 * Refining a query mostly keeps the best hits in place.  Rows in the viewport still showing the same item
+	 * with the same matches and row state keep their painted item, everything else is cleared and asked for again when visible.
+	 */
+	private void diffTableRows(List<RankedItem<T>> tableEntries) {
+		final int cursorIndex = contentProvider().getCursorIndex();
+		table.setItemCount(tableEntries.size());
+		paintedRowStates.keySet().removeIf(row -> row >= tableEntries.size());
+		if (cursorIndex >= 0 && cursorIndex < tableEntries.size()) table.showItem(table.getItem(cursorIndex));
+		
+		final int itemCount = tableEntries.size();
+		final int topIndex = Math.min(table.getTopIndex(), itemCount);
+		final int visibleEnd = Math.min(topIndex + numberOfItemsVisible(table) + 1, itemCount);
+		for (int row = topIndex; row < visibleEnd; row++) {
+			final RankedItem<T> entry = tableEntries.get(row);
+			if (isPaintedAs(row, entry)) {
+				// only swap the element so selection and cursor lookups resolve against the new entries
+				table.getItem(row).setData(entry);
+			} else {
+				clearRow(row);
+			}
+		}
+		if (topIndex > 0) clearRows(0, topIndex - 1);
+		if (visibleEnd < itemCount) clearRows(visibleEnd, itemCount - 1);
+		
+		paintedEntries = tableEntries;
+		paintedCursorIndex = cursorIndex;
+	}
+	
+	/*
+	 * Selections cleared on reopen or enablement evaluated again change the row state without changing the item
+	 */
+	private boolean isPaintedAs(int row, RankedItem<T> entry) {
+		final Integer paintedRowState = paintedRowStates.get(row);
+		if (paintedRowState == null || row >= paintedEntries.size()) return false;
+		return paintedRowState == contentProvider().itemRowState(entry) && entry.isDisplayedAs(paintedEntries.get(row));
+	}
+	
+	/*
+	 * Only called on the UI thread, tracks what the table is showing
+	 */
 	private boolean contentChanged(List<RankedItem<T>> newContent) {
 		boolean contentChanged = true;
 		if (currentContent == newContent) contentChanged = false;
@@ -155,11 +308,9 @@ public class KaviList<T> {
 			int rowIndex = alphaColumnConverter.toNumeric(inputCommand.fastSelectIndex) - 1;
 			
 			if (inputCommand.multiSelect && inputCommand.selectRange) {
-				contentProvider().selectRange(contentProvider().getTableEntries().get(rowIndex));
-				tableViewer.refresh();
+				changeRowStates(() -> contentProvider().selectRange(contentProvider().getTableEntries().get(rowIndex)));
 			} else if (inputCommand.multiSelect) {
-				contentProvider().toggleSelectedState(contentProvider().getTableEntries().get(rowIndex));
-				tableViewer.refresh();
+				changeRowStates(() -> contentProvider().toggleSelectedState(contentProvider().getTableEntries().get(rowIndex)));
 			} else {
 				contentProvider().toggleSelectedState(contentProvider().getTableEntries().get(rowIndex));
 				table.getDisplay().asyncExec(this::handleSelection);
@@ -167,12 +318,10 @@ public class KaviList<T> {
 			
 			if (fastSelectAction != null) fastSelectAction.accept(contentProvider().getSelectedEntries(), inputCommand);
 		} else if (inputCommand.inverseSelection) {
-			contentProvider().inverseSelectedState();
-			tableViewer.refresh();
+			changeRowStates(contentProvider()::inverseSelectedState);
 			if (fastSelectAction != null) fastSelectAction.accept(contentProvider().getSelectedEntries(), inputCommand);
 		} else if (inputCommand.selectAll) {
-			contentProvider().toggleSelectedStateOfVisible();
-			tableViewer.refresh();
+			changeRowStates(contentProvider()::toggleSelectedStateOfVisible);
 			if (fastSelectAction != null) fastSelectAction.accept(contentProvider().getSelectedEntries(), inputCommand);
 		}
 	}
@@ -210,6 +359,7 @@ public class KaviList<T> {
 
 	public void initialize(Composite composite, int defaultOrientation) {
 		display = composite.getDisplay();
+		frameUpdates = new FrameCoalescer(display, this::applyFrameUpdates);
 		composite.addDisposeListener((DisposeListener) this::dispose);
 		
 		tableViewer = new TableViewer(composite, SWT.MULTI | SWT.FULL_SELECTION | SWT.VIRTUAL | SWT.NO_BACKGROUND | SWT.DOUBLE_BUFFERED );
@@ -223,16 +373,19 @@ public class KaviList<T> {
         gridData.horizontalAlignment = GridData.FILL;
         tableViewer.getControl().setLayoutData(gridData);
 		
-		tableViewer.setContentProvider((ILazyContentProvider) rowIndex -> tableViewer.replace(contentProvider().getTableEntries().get(rowIndex), rowIndex));
+		tableViewer.setContentProvider((ILazyContentProvider) rowIndex -> {
+			final RankedItem<T> entry = contentProvider().getTableEntries().get(rowIndex);
+			paintedRowStates.put(rowIndex, contentProvider().itemRowState(entry));
+			tableViewer.replace(entry, rowIndex);
+		});
 		table.addListener(SWT.Selection, event-> {
 			TableItem item = (TableItem) event.item;
 			contentProvider().setCursorIndex(contentProvider().getRowIndex((RankedItem<T>) item.getData()));
+			cursorMoved = true;
+			frameUpdates.request();
 			handleSelection();
 		});
 		composite.getShell().addListener(SWT.Resize, event ->  autoAdjustColumnWidths(composite));
-		
-		// TODO try throttleLast or custom scheduler
-		//subjectFilter.debounce(0, TimeUnit.MILLISECONDS).subscribe( filter -> handleRefresh(filter));
 
 	}
 
@@ -269,6 +422,7 @@ public class KaviList<T> {
 	}
 
 	public void bindInputField(Text filterText) {
+		this.filterText = filterText;
 		// TODO - create separate key binding manager
 		// check for keys being held down
 		// possibly tab toggle for command mode
@@ -346,29 +500,19 @@ public class KaviList<T> {
 		return ((event.stateMask & modifier) != 0) && (event.keyCode == keyCode);
 	}
 	
+	/*
+	 * The cursor moves right away, the table catches up with the next frame.
+	 * Held arrow keys then only repaint once per frame.
+	 */
 	private void moveRowCursorUp() {
-		Composite composite = table.getParent();
-		composite.getShell().setRedraw(false);
-		
-		final int cursorIndex = contentProvider().moveCursorUp().getCursorIndex();
-		if (cursorIndex >= 0) {
-			TableItem cursoredTableItem = tableViewer.getTable().getItem(cursorIndex);
-			tableViewer.getTable().showItem(cursoredTableItem);
-		}
-		tableViewer.refresh();
-		composite.getShell().setRedraw(true);
+		contentProvider().moveCursorUp();
+		cursorMoved = true;
+		frameUpdates.request();
 	}
 	private void moveRowCursorDown() {
-		Composite composite = table.getParent();
-		composite.getShell().setRedraw(false);
-		
-		final int cursorIndex = contentProvider().moveCursorDown().getCursorIndex();
-		if (cursorIndex >= 0) {
-			TableItem cursoredTableItem = tableViewer.getTable().getItem(cursorIndex);
-			tableViewer.getTable().showItem(cursoredTableItem);
-		}
-		tableViewer.refresh();
-		composite.getShell().setRedraw(true);
+		contentProvider().moveCursorDown();
+		cursorMoved = true;
+		frameUpdates.request();
 	}
 	
 	public void refresh() {
@@ -415,6 +559,8 @@ public class KaviList<T> {
 		
 		previousProvider = contentProvider();
 		currentContentProvider = mode;
+		// rows of another provider are shown with different columns
+		paintedEntries = Collections.emptyList();
 		Composite composite = table.getParent();
 		composite.getShell().setRedraw(false);
 		if (contentProvider().installProvider(previousProvider)) {
@@ -443,6 +589,7 @@ public class KaviList<T> {
 	}
 	
 	private void dispose(DisposeEvent e) {
+		refreshPipeline.dispose();
 		if (resourceManager != null) {
 			resourceManager.dispose();
 			resourceManager = null;
@@ -1,7 +1,11 @@
 package dakara.eclipse.plugin.kavi.picklist;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 
@@ -19,7 +23,6 @@ import org.eclipse.swt.graphics.GC;
 import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.graphics.RGB;
 import org.eclipse.swt.graphics.Rectangle;
-import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Event;
 import org.eclipse.swt.widgets.TableColumn;
 import org.eclipse.swt.widgets.TableItem;
@@ -32,9 +35,17 @@ import dakara.eclipse.plugin.stringscore.StringScore.Score;
  * TODO - move a colors to a common location.  prior step to allowing user customizations.
  */
 public class KaviListColumns<T> {
+	private static final RGB MARKER_COLOR = new RGB(49, 196, 121);
+	private static final RGB MATCH_COLOR = new RGB(150, 190, 255);
+	private static final RGB SELECTED_COLOR = new RGB(225, 226, 206);
+	private static final RGB DISABLED_COLOR = new RGB(190, 190, 190);
+	private static final RGB CURSOR_COLOR = new RGB(200, 200, 200);
 	private final List<ColumnOptions<T>> columnOptions = new ArrayList<>();
 	private final TableViewer tableViewer;
 	private final Function<RankedItem<T>, Integer> rowStateResolver;
+	private final Map<RGB, Color> colors = new HashMap<>();
+	/* Rendered cells of the current results, each row is its own ranked item until the results change */
+	private final Map<RankedItem<T>, CellRender[]> renderedCells = new IdentityHashMap<>();
 	public KaviListColumns(TableViewer tableViewer, Function<RankedItem<T>, Integer> rowStateResolver) {
 		this.tableViewer = tableViewer;
 		this.rowStateResolver = rowStateResolver;
@@ -49,11 +60,12 @@ public class KaviListColumns<T> {
 		StyledCellLabelProvider labelProvider = new StyledCellLabelProvider(StyledCellLabelProvider.COLORS_ON_SELECTION) {
 			@Override
 	        	public void update(ViewerCell cell) {
-	        		// TODO reuse and manage SWT resources
-	        		final RankedItem<T> rankedItem = applyCellDefaultStyles(options, cell);
-	        		resolveCellTextValue(columnContentFn, cell, rankedItem);
-	        		if (options.isSearchable())
-	        			applyCellScoreMatchStyles(cell, rankedItem);
+	        		final CellRender render = resolveCellRender(options, cell);
+	        		cell.setForeground(render.foreground);
+	        		cell.setBackground(render.background);
+	        		cell.setFont(render.font);
+	        		cell.setText(render.text);
+	        		cell.setStyleRanges(render.styleRanges);
 	        		super.update(cell);
 	        	}
 			@Override
@@ -66,10 +78,10 @@ public class KaviListColumns<T> {
 					GC gc = event.gc;
 					ViewerCell cell = getViewer().getCell(new Point(event.x, event.y));
 					Rectangle bounds = cell.getBounds();
-					RGB markerColor = new RGB(49, 196, 121);
+					Color markerColor = fromRegistry(MARKER_COLOR);
 					
-					gc.setForeground(fromRegistry(markerColor));
-					gc.setBackground(fromRegistry(markerColor));
+					gc.setForeground(markerColor);
+					gc.setBackground(markerColor);
 					gc.fillRectangle(bounds.x, bounds.y + 2, getAdjustmentForMarkerWidth(), bounds.height - 4);
 				}
 				super.paint(event, element);
@@ -84,7 +96,16 @@ public class KaviListColumns<T> {
 		return columnOptions;
 	}
 	
+	/*
+	 * Rendered cells belong to one list of results, row state is checked whenever a cell is asked for again
+	 */
+	public KaviListColumns<T> resultsChanged() {
+		renderedCells.clear();
+		return this;
+	}
+	
 	public KaviListColumns<T> reset() {
+		renderedCells.clear();
 		for (TableColumn column : tableViewer.getTable().getColumns()) {
 			column.dispose();
 		}
@@ -123,22 +144,46 @@ public class KaviListColumns<T> {
     
 	
 	@SuppressWarnings("unchecked")
-	private RankedItem<T> applyCellDefaultStyles(final ColumnOptions<T> options, ViewerCell cell) {
+	private CellRender resolveCellRender(final ColumnOptions<T> options, ViewerCell cell) {
 		final RankedItem<T> rankedItem = (RankedItem<T>) cell.getElement();
-		cell.setForeground(fromRegistry(options.getFontColor()));
-		int rowState = rowStateResolver.apply(rankedItem);
+		final int rowState = rowStateResolver.apply(rankedItem);
+		CellRender[] rowCells = renderedCells.get(rankedItem);
+		if (rowCells == null || rowCells.length != columnOptions.size()) {
+			rowCells = new CellRender[columnOptions.size()];
+			renderedCells.put(rankedItem, rowCells);
+		}
 		
-	    if ((rowState & RowState.SELECTED.value) != 0 && options.isEnableBackgroundSelection()) {
-			cell.setBackground(fromRegistry(new RGB(225,226,206)));
+		final CellRender previous = rowCells[options.columnIndex];
+		if (previous != null && previous.rowState == rowState) return previous;
+		
+		// text and matches only depend on the results, a changed row state only changes colors
+		final String text;
+		final StyleRange[] styleRanges;
+		if (previous != null) {
+			text = previous.text;
+			styleRanges = previous.styleRanges;
 		} else {
-			cell.setBackground(fromRegistry(options.getBackgroundColor()));
+			text = resolveCellTextValue(options.getColumnContentFn(), cell, rankedItem);
+			styleRanges = options.isSearchable() ? createScoreMatchStyles(options, rankedItem) : null;
 		}
+		return rowCells[options.columnIndex] = new CellRender(rowState, text, styleRanges, 
+				resolveForeground(options, rowState), resolveBackground(options, rowState), createColumnFont(options, cell));
+	}
+	
+	private Color resolveForeground(final ColumnOptions<T> options, int rowState) {
+		if ((rowState & RowState.DISABLED.value) != 0) return fromRegistry(ColorUtil.blend(options.getFontColor(), DISABLED_COLOR, 30));
+		return fromRegistry(options.getFontColor());
+	}
+	
+	private Color resolveBackground(final ColumnOptions<T> options, int rowState) {
+		RGB background = options.getBackgroundColor();
+	    if ((rowState & RowState.SELECTED.value) != 0 && options.isEnableBackgroundSelection()) {
+	    		background = SELECTED_COLOR;
+	    }
 	    if ((rowState & RowState.CURSOR.value) != 0 && options.isEnableBackgroundSelection()) {
-			cell.setBackground(fromRegistry(ColorUtil.blend(cell.getBackground().getRGB(), new RGB(200,200,200))));
+	    		background = ColorUtil.blend(background, CURSOR_COLOR);
 	    }
-		Font font = createColumnFont(options, cell);
-		cell.setFont(font);
-		return rankedItem;
+		return fromRegistry(background);
 	}
 
 	private Font createColumnFont(final ColumnOptions<T> options, ViewerCell cell) {
@@ -152,42 +197,68 @@ public class KaviListColumns<T> {
 	}
 	
 	private Color fromRegistry(RGB rgb) {
-		String symbolicName = rgb.red + "." + rgb.blue + "." + rgb.green;
-		Color color = JFaceResources.getColorRegistry().get(symbolicName);
-		if (color == null) {
-			color = new Color(Display.getCurrent(), rgb);
-			JFaceResources.getColorRegistry().put(symbolicName, color.getRGB());
+		Color color = colors.get(rgb);
+		if (color != null) return color;
+		
+		String symbolicName = rgb.red + "." + rgb.green + "." + rgb.blue;
+		if (!JFaceResources.getColorRegistry().hasValueFor(symbolicName)) {
+			JFaceResources.getColorRegistry().put(symbolicName, rgb);
 		}
+		color = JFaceResources.getColorRegistry().get(symbolicName);
+		colors.put(rgb, color);
 		return color;
 	}
 	
-	private void resolveCellTextValue(BiFunction<T, Integer, String> columnContentFn, ViewerCell cell, final RankedItem<T> rankedItem) {
-		cell.setText(columnContentFn.apply(rankedItem.dataItem, tableViewer.getTable().indexOf((TableItem) cell.getItem())));
-	}	
-	private void applyCellScoreMatchStyles(ViewerCell cell, final RankedItem<T> rankedItem) {
-		Score score = rankedItem.getColumnScore(getColumnIdFromColumnIndex(cell.getColumnIndex()));
-		if (score != null) {
-			// TODO - investigate performance options
-			// this is currently the bottle neck in UI performance.  Creating and setting styles.
-			cell.setStyleRanges(createStyles(score.matches));
-		}
+	private String resolveCellTextValue(BiFunction<T, Integer, String> columnContentFn, ViewerCell cell, final RankedItem<T> rankedItem) {
+		return columnContentFn.apply(rankedItem.dataItem, tableViewer.getTable().indexOf((TableItem) cell.getItem()));
 	}
 	
-	private String getColumnIdFromColumnIndex(int columnIndex) {
-		// TODO consider: likely there will never be lots of columns.  Looping is probably optimal here vs a lookup table.
-		for (ColumnOptions<T> options : columnOptions) {
-			if (options.columnIndex == columnIndex) return options.columnId;
+	private StyleRange[] createScoreMatchStyles(final ColumnOptions<T> options, final RankedItem<T> rankedItem) {
+		Score score = rankedItem.getColumnScore(options.columnId);
+		if (score == null) return null;
+		return createStyles(score.matches, fromRegistry(MATCH_COLOR));
+	}
+	
+	/*
+	 * One style range per run of adjacent matched characters
+	 */
+	static StyleRange[] createStyles(List<Integer> matches, Color matchColor) {
+		final int[] positions = new int[matches.size()];
+		for (int index = 0; index < positions.length; index++) {
+			positions[index] = matches.get(index);
 		}
-		throw new IllegalStateException("No matching column index");
+		Arrays.sort(positions);
+		
+		final List<StyleRange> styles = new ArrayList<StyleRange>();
+		int index = 0;
+		while (index < positions.length) {
+			final int start = positions[index];
+			int end = start;
+			while (++index < positions.length && positions[index] <= end + 1) {
+				end = positions[index];
+			}
+			styles.add(new StyleRange(start, end - start + 1, null, matchColor));
+		}
+		return styles.toArray(new StyleRange[styles.size()]);
 	}
 	
-    private StyleRange[] createStyles(List<Integer> matches) {
-	    	List<StyleRange> styles = new ArrayList<StyleRange>();
-	    	for (Integer match : matches) {
-	    		styles.add(new StyleRange(match, 1, null, fromRegistry(new RGB(150,190,255))));
-	    	}
-	    	return styles.toArray(new StyleRange[]{});
-    }
+	private static final class CellRender {
+		final int rowState;
+		final String text;
+		final StyleRange[] styleRanges;
+		final Color foreground;
+		final Color background;
+		final Font font;
+		
+		CellRender(int rowState, String text, StyleRange[] styleRanges, Color foreground, Color background, Font font) {
+			this.rowState = rowState;
+			this.text = text;
+			this.styleRanges = styleRanges;
+			this.foreground = foreground;
+			this.background = background;
+			this.font = font;
+		}
+	}
     
     private int getAdjustmentForMarkerWidth() 	{return SWT.getPlatform().equals("win32") ? 3  : 2;}
 }
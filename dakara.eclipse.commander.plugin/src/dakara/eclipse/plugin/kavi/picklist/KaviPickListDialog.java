@@ -31,6 +31,7 @@ public class KaviPickListDialog<T> extends PopupDialog {
 	private Text listFilterInputControl;
 	private final StatusDisplayInfo displayInfo = new StatusDisplayInfo();
 	private boolean autoCloseOnFocusLost = false;
+	private boolean reusable = false;
 
 	public KaviPickListDialog() {
 		super(ProgressManagerUtil.getDefaultParent(), SWT.RESIZE | SWT.NO_BACKGROUND, true, true, false, true, true, null, "Central Command");
@@ -74,26 +75,46 @@ public class KaviPickListDialog<T> extends PopupDialog {
 		return openResult;
 	}
 	
-//	public void hide() {
-//		getShell().setVisible(false);
-//	}
+	/*
+	 * A reusable dialog is hidden rather than closed, so the next use only has to show it again
+	 */
+	public KaviPickListDialog<T> setReusable(boolean reusable) {
+		this.reusable = reusable;
+		return this;
+	}
+	
+	public boolean canShow() {
+		return getShell() != null && !getShell().isDisposed();
+	}
+	
+	public void hide() {
+		getShell().setVisible(false);
+	}
 
 	public void show() {
-		listFilterInputControl.setText("");
+		kaviList.resetState();
+		// clearing the filter refreshes the list through the modify listener, an empty filter is refreshed here
+		if (listFilterInputControl.getText().isEmpty()) kaviList.requestRefresh("");
+		else listFilterInputControl.setText("");
 		getShell().setVisible(true);
+		getShell().setActive();
 		listFilterInputControl.setFocus();
 	}
 	
 	@Override
 	public boolean close() {
-		if (autoCloseOnFocusLost) return super.close();
-		
 		// override so that losing focus does not close dialog
-		return false;
+		if (!autoCloseOnFocusLost) return false;
+		if (reusable) {
+			hide();
+			return false;
+		}
+		return super.close();
 	}
 	
 	public void dismiss() {
-		super.close();
+		if (reusable) hide();
+		else super.close();
 	}
 	
 	@Override
@@ -121,6 +142,10 @@ public class KaviPickListDialog<T> extends PopupDialog {
 		return kaviList.setCurrentProvider(mode);
 	}
 	
+	public void refreshContent() {
+		kaviList.refreshContent();
+	}
+	
 	private void handleFastSelect(Set<RankedItem<T>> selectedItems, InputCommand command) {
 		String currentText = listFilterInputControl.getText();
 		String newText = currentText.substring(0, currentText.lastIndexOf('/') + 1);
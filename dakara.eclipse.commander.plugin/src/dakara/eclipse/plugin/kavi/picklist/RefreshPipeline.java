@@ -0,0 +1,78 @@
+package dakara.eclipse.plugin.kavi.picklist;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Turns keystrokes into list refreshes.
+ *
+ * - the first key after a quiet period is dispatched right away, keys following it are debounced
+ * - only the latest request is ever run, requests still waiting when a newer one arrives are dropped
+ * - refreshes run one at a time on a single dedicated thread, so ranking never overlaps
+ * - each refresh gets a ticket that goes stale as soon as a newer request arrives, so work in flight stops
+ *   between its steps and results from an older request are never applied over those of a newer one
+ */
+public class RefreshPipeline {
+	public interface Refresh {
+		void run(String filter, Ticket ticket);
+	}
+
+	public class Ticket {
+		public final long version;
+
+		private Ticket(long version) {
+			this.version = version;
+		}
+
+		public boolean isStale() {
+			return version != latestVersion.get();
+		}
+	}
+
+	private final Refresh refresh;
+	private final ScheduledExecutorService worker;
+	private final AtomicLong latestVersion = new AtomicLong();
+	private ScheduledFuture<?> pendingRefresh = null;
+	private long lastRequestTime = Long.MIN_VALUE / 2;
+	private volatile boolean refreshing = false;
+
+	public RefreshPipeline(String name, Refresh refresh) {
+		this.refresh = refresh;
+		this.worker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public synchronized Ticket request(String filter, long debounceTime) {
+		final Ticket ticket = new Ticket(latestVersion.incrementAndGet());
+		final long now = System.nanoTime() / 1000000;
+		final boolean quiet = now - lastRequestTime >= debounceTime;
+		lastRequestTime = now;
+
+		if (pendingRefresh != null) pendingRefresh.cancel(false);
+		if (worker.isShutdown()) return ticket;
+		pendingRefresh = worker.schedule(() -> dispatch(filter, ticket), quiet && !refreshing ? 0 : debounceTime, TimeUnit.MILLISECONDS);
+		return ticket;
+	}
+
+	private void dispatch(String filter, Ticket ticket) {
+		// superseded while waiting for the worker
+		if (ticket.isStale()) return;
+		refreshing = true;
+		try {
+			refresh.run(filter, ticket);
+		} finally {
+			refreshing = false;
+		}
+	}
+
+	public void dispose() {
+		latestVersion.incrementAndGet();
+		worker.shutdownNow();
+	}
+}
@@ -3,25 +3,38 @@ package dakara.eclipse.plugin.platform;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
 import org.eclipse.core.resources.IResourceDelta;
 import org.eclipse.core.resources.IResourceProxy;
 import org.eclipse.core.resources.IResourceProxyVisitor;
 import org.eclipse.core.resources.IWorkspaceRoot;
 import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IAdaptable;
 import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jdt.core.ElementChangedEvent;
 import org.eclipse.jdt.core.IClassFile;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaElementDelta;
+import org.eclipse.jdt.core.JavaCore;
 import org.eclipse.jdt.core.JavaModelException;
 import org.eclipse.jdt.core.search.IJavaSearchScope;
 import org.eclipse.jdt.core.search.SearchEngine;
+import org.eclipse.jdt.internal.core.JavaModelManager;
 import org.eclipse.jdt.internal.core.Openable;
 import org.eclipse.jdt.internal.core.index.Index;
 import org.eclipse.jdt.internal.core.search.BasicSearchEngine;
@@ -29,11 +42,13 @@ import org.eclipse.jdt.internal.core.search.PatternSearchJob;
 import org.eclipse.jdt.internal.core.util.HandleFactory;
 import org.eclipse.jdt.internal.ui.javaeditor.IClassFileEditorInput;
 import org.eclipse.ui.IEditorInput;
+import org.eclipse.ui.IEditorPart;
 import org.eclipse.ui.IEditorReference;
 import org.eclipse.ui.IFileEditorInput;
 import org.eclipse.ui.IPartListener2;
 import org.eclipse.ui.IWorkbenchPage;
 import org.eclipse.ui.IWorkbenchPartReference;
+import org.eclipse.ui.IWorkingSet;
 import org.eclipse.ui.PartInitException;
 
 import dakara.eclipse.plugin.command.Constants;
@@ -42,7 +57,14 @@ import dakara.eclipse.plugin.log.EclipsePluginLogger;
 
 public class EclipseWorkbench {
 	private static EclipsePluginLogger logger = new EclipsePluginLogger(Constants.BUNDLE_ID);	
-	private static Map<String, IndexInfoCache> indexCacheMap = new HashMap();
+	private static Map<String, IndexInfoCache> indexCacheMap = new ConcurrentHashMap<>();
+	private static final long INDEX_WATCH_INTERVAL = 2000;
+	private static final Object indexWatcherLock = new Object();
+	private static Job indexWatcher = null;
+	private static Runnable indexingCompleteAction = null;
+	private static final int TYPE_CONTAINER_CHANGE_FLAGS = IJavaElementDelta.F_CLASSPATH_CHANGED | IJavaElementDelta.F_RESOLVED_CLASSPATH_CHANGED |
+			IJavaElementDelta.F_ADDED_TO_CLASSPATH | IJavaElementDelta.F_REMOVED_FROM_CLASSPATH | IJavaElementDelta.F_ARCHIVE_CONTENT_CHANGED |
+			IJavaElementDelta.F_SOURCEATTACHED | IJavaElementDelta.F_SOURCEDETACHED | IJavaElementDelta.F_OPENED | IJavaElementDelta.F_CLOSED;
 	public static List<ResourceItem> collectAllWorkspaceFiles() {
 		IWorkspaceRoot workspace = ResourcesPlugin.getWorkspace().getRoot();
 		List<ResourceItem> files = new ArrayList<>();
@@ -72,61 +94,157 @@ public class EclipseWorkbench {
 		return files;
 	}
 	
-	public static void notifyResourceAddedOrRemoved(Runnable onResourceAddedOrRemoved) {
+	/*
+	 * Resource changes arrive for every save, marker update and build output.
+	 * Only files being added or removed matter to us, so derived, hidden and team private subtrees are pruned
+	 * and content or marker changes are ignored.  Changes are gathered and delivered as a single batch
+	 * at most once per batch interval.
+	 */
+	public static void notifyResourceAddedOrRemoved(long batchInterval, Consumer<ResourceChangeBatch> onResourcesAddedOrRemoved) {
+		final ResourceChangeBatch pendingChanges = new ResourceChangeBatch();
+		
+		final Job batchJob = new Job("Commander resource changes") {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				ResourceChangeBatch changes;
+				synchronized (pendingChanges) {
+					changes = new ResourceChangeBatch().merge(pendingChanges);
+					pendingChanges.clear();
+				}
+				if (!changes.isEmpty()) onResourcesAddedOrRemoved.accept(changes);
+				return Status.OK_STATUS;
+			}
+		};
+		batchJob.setSystem(true);
+		
 		ResourcesPlugin.getWorkspace().addResourceChangeListener(changeEvent -> {
 			try {
-				changeEvent.getDelta().accept((IResourceDelta change) -> {
-					if (change.getKind() == IResourceDelta.ADDED || change.getKind() == IResourceDelta.REMOVED) {
-						onResourceAddedOrRemoved.run();
-					}
-					return true;
-				});
+				ResourceChangeBatch changes = collectAddedAndRemovedFiles(changeEvent.getDelta());
+				if (changes.isEmpty()) return;
+				
+				synchronized (pendingChanges) {
+					pendingChanges.merge(changes);
+				}
+				// once scheduled, later events join the pending batch rather than postponing it
+				final int jobState = batchJob.getState();
+				if (jobState != Job.WAITING && jobState != Job.SLEEPING) batchJob.schedule(batchInterval);
 			} catch (CoreException e) {
 				e.printStackTrace();
 			}
+		}, IResourceChangeEvent.POST_CHANGE);
+	}
+	
+	private static ResourceChangeBatch collectAddedAndRemovedFiles(IResourceDelta rootDelta) throws CoreException {
+		final ResourceChangeBatch changes = new ResourceChangeBatch();
+		if (rootDelta == null) return changes;
+		
+		// the default member flags already exclude hidden and team private resources
+		rootDelta.accept((IResourceDelta delta) -> {
+			final IResource resource = delta.getResource();
+			if (resource.isDerived() || resource.isHidden() || resource.isTeamPrivateMember()) return false;
+			
+			if (resource.getType() == IResource.PROJECT && (delta.getFlags() & IResourceDelta.OPEN) != 0) {
+				changes.requireReload();
+				return false;
+			}
+			if (resource.getType() != IResource.FILE) return true;
+			
+			if (delta.getKind() == IResourceDelta.ADDED) changes.added(makeResourceItem((IFile) resource));
+			else if (delta.getKind() == IResourceDelta.REMOVED) changes.removed(makeResourceItem((IFile) resource));
+			return false;
 		});
+		return changes;
 	}
 	
 	/*
-	 * TODO - There are still a lot of duplicates being returned
-	 * 
+	 * The same jar is indexed once for every project referencing it.
+	 * Types are deduplicated by their container and document name as each index is harvested
+	 * so that a jar shared by many projects only contributes its types once.
 	 */
 	public static List<ResourceItem>	collectAllWorkspaceTypes() {
 		IJavaSearchScope scope = BasicSearchEngine.createWorkspaceScope();
 		PatternSearchJob job = new PatternSearchJob(null, SearchEngine.getDefaultSearchParticipant(), scope, null);
 		List<Index> selectedIndexes = new ArrayList<>(Arrays.asList(job.getIndexes(null)));
+		Set<String> harvestedTypes = ConcurrentHashMap.newKeySet();
 		List<ResourceItem> files = selectedIndexes.stream().parallel()
 				.flatMap(index -> {
-					return addResourceForIndexEntry(getIndexEntries(index), index).stream();
+					return addResourceForIndexEntry(getIndexEntries(index), index, harvestedTypes).stream();
 				}).collect(Collectors.toList());
 		
 		return files;
 	}
 	
-	public static boolean hasWorkspaceTypesChanged(long sinceTime) {
-		IJavaSearchScope scope = BasicSearchEngine.createWorkspaceScope();
-		PatternSearchJob job = new PatternSearchJob(null, SearchEngine.getDefaultSearchParticipant(), scope, null);
-		List<Index> selectedIndexes = new ArrayList<>(Arrays.asList(job.getIndexes(null)));
-		boolean isChanged = selectedIndexes.stream().parallel()
-			.anyMatch(index -> index.getIndexLastModified() > sinceTime);
-
-		return isChanged;
+	/*
+	 * Types are harvested from the indexes of libraries on the classpath.
+	 * Only changes to projects, classpaths and archives can change that set,
+	 * so we stop descending at package fragment roots and never visit compilation units.
+	 */
+	public static void notifyWorkspaceTypesChanged(Runnable onTypesChanged) {
+		JavaCore.addElementChangedListener(changeEvent -> {
+			if (hasTypeContainerChanges(changeEvent.getDelta())) onTypesChanged.run();
+		}, ElementChangedEvent.POST_CHANGE);
 	}
 	
-	private static List<String> getIndexEntries(Index index) {
-		List<String> entries = new ArrayList<>();
+	private static boolean hasTypeContainerChanges(IJavaElementDelta delta) {
+		final int elementType = delta.getElement().getElementType();
+		if (elementType != IJavaElement.JAVA_MODEL && elementType != IJavaElement.JAVA_PROJECT && elementType != IJavaElement.PACKAGE_FRAGMENT_ROOT) return false;
+		if (elementType != IJavaElement.JAVA_MODEL && (delta.getKind() == IJavaElementDelta.ADDED || delta.getKind() == IJavaElementDelta.REMOVED)) return true;
+		if ((delta.getFlags() & TYPE_CONTAINER_CHANGE_FLAGS) != 0) return true;
+		
+		for (IJavaElementDelta childDelta : delta.getAffectedChildren()) {
+			if (hasTypeContainerChanges(childDelta)) return true;
+		}
+		return false;
+	}
+	
+	public static boolean isIndexingInProgress() {
+		return JavaModelManager.getIndexManager().awaitingJobsCount() > 0;
+	}
+	
+	/*
+	 * Indexing completes without any element change notification and there is no public API telling when it has,
+	 * so this polls the internal JDT index manager for outstanding jobs.
+	 * A single watcher checks back in the background until indexing has finished.
+	 * Requests made while it is already watching only replace the action run on completion.
+	 */
+	public static void notifyWhenIndexingComplete(Runnable onIndexingComplete) {
+		synchronized (indexWatcherLock) {
+			indexingCompleteAction = onIndexingComplete;
+			if (indexWatcher == null) {
+				indexWatcher = new Job("Commander index watcher") {
+					@Override
+					protected IStatus run(IProgressMonitor monitor) {
+						if (monitor.isCanceled()) return Status.CANCEL_STATUS;
+						if (isIndexingInProgress()) {
+							schedule(INDEX_WATCH_INTERVAL);
+							return Status.OK_STATUS;
+						}
+						Runnable action;
+						synchronized (indexWatcherLock) {
+							action = indexingCompleteAction;
+							indexingCompleteAction = null;
+						}
+						if (action != null) action.run();
+						return Status.OK_STATUS;
+					}
+				};
+				indexWatcher.setSystem(true);
+			}
+			// a running watcher is scheduled again once it is done, in case it has already passed its check
+			final int watcherState = indexWatcher.getState();
+			if (watcherState != Job.WAITING && watcherState != Job.SLEEPING) indexWatcher.schedule(INDEX_WATCH_INTERVAL);
+		}
+	}
+	
+	private static String[] getIndexEntries(Index index) {
 		try {
 			String[] names = index.queryDocumentNames(null);
-			if (names != null) {
-				for (String name : names) {
-					entries.add(name);
-				}
-			}
+			if (names != null) return names;
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
-		return entries;
+		return new String[0];
 	}
 	
 	private static String extractName(String pathWithClass) {
@@ -170,8 +288,8 @@ public class EclipseWorkbench {
 		return classname;
 	}
 	
-	private static List<ResourceItem> addResourceForIndexEntry(List<String> names, Index index) {
-		List<ResourceItem> files = new ArrayList();
+	private static List<ResourceItem> addResourceForIndexEntry(String[] names, Index index, Set<String> harvestedTypes) {
+		List<ResourceItem> files = new ArrayList<>();
 		for (String name : names) {
 			name = nameOrInnerNameOrNull(name);
 			if (name != null && !name.endsWith(".java")) {
@@ -181,9 +299,12 @@ public class EclipseWorkbench {
 				// skip all items in same index if no source attached
 				if (!hasSourceAttachment(index.containerPath, fullResourcePath)) return files;
 				
+				// another index for the same container has already contributed this type
+				if (!harvestedTypes.add(fullResourcePath)) continue;
+				
 				String fileName = extractName(name);
 				if (fileName != null) // will be null if anonymous inner class
-					files.add(new ResourceItem(fileName, index.containerPath + "|" + name, "[class]"));
+					files.add(new ResourceItem(fileName, fullResourcePath, "[class]"));
 			}
 		} 
 		
@@ -233,6 +354,26 @@ public class EclipseWorkbench {
 		page.addPartListener(pl);
 	}
 	
+	public static Set<String> activeEditorProject(IWorkbenchPage page) {
+		Set<String> projects = new HashSet<>();
+		IEditorPart editor = page.getActiveEditor();
+		if (editor == null) return projects;
+		IFile file = editor.getEditorInput().getAdapter(IFile.class);
+		if (file != null) projects.add(file.getProject().getName());
+		return projects;
+	}
+	
+	public static Set<String> workingSetProjects(IWorkbenchPage page) {
+		Set<String> projects = new HashSet<>();
+		for (IWorkingSet workingSet : page.getWorkingSets()) {
+			for (IAdaptable element : workingSet.getElements()) {
+				IResource resource = element.getAdapter(IResource.class);
+				if (resource != null && resource.getProject() != null) projects.add(resource.getProject().getName());
+			}
+		}
+		return projects;
+	}
+	
 	public static String workspaceName() {
 		return ResourcesPlugin.getWorkspace().getRoot().getLocation().lastSegment();
 	}
@@ -0,0 +1,79 @@
+package dakara.eclipse.plugin.platform;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/*
+ * Files added and removed across one or more resource change events.
+ * A file removed and added again within the same batch is treated as present.
+ */
+public class ResourceChangeBatch {
+	private final Set<ResourceItem> added = new HashSet<>();
+	private final Set<ResourceItem> removed = new HashSet<>();
+	private boolean reloadRequired = false;
+	
+	public ResourceChangeBatch added(ResourceItem item) {
+		added.add(item);
+		return this;
+	}
+	
+	public ResourceChangeBatch removed(ResourceItem item) {
+		added.remove(item);
+		removed.add(item);
+		return this;
+	}
+	
+	/*
+	 * Changes that can not be described as individual files, such as a project being opened or closed.
+	 */
+	public ResourceChangeBatch requireReload() {
+		reloadRequired = true;
+		return this;
+	}
+	
+	public boolean isReloadRequired() {
+		return reloadRequired;
+	}
+	
+	public boolean isEmpty() {
+		return !reloadRequired && added.isEmpty() && removed.isEmpty();
+	}
+	
+	public ResourceChangeBatch clear() {
+		added.clear();
+		removed.clear();
+		reloadRequired = false;
+		return this;
+	}
+	
+	public ResourceChangeBatch merge(ResourceChangeBatch laterChanges) {
+		for (ResourceItem item : laterChanges.removed) removed(item);
+		for (ResourceItem item : laterChanges.added) added(item);
+		reloadRequired |= laterChanges.reloadRequired;
+		return this;
+	}
+	
+	public Set<String> projects() {
+		Set<String> projects = new HashSet<>();
+		for (ResourceItem item : added) projects.add(item.project);
+		for (ResourceItem item : removed) projects.add(item.project);
+		return projects;
+	}
+	
+	/*
+	 * Applies the changes for a single project to the items of that project.
+	 * Returns a new list, the given list is left untouched as it may still be in use by a query.
+	 */
+	public List<ResourceItem> applyTo(String project, List<ResourceItem> projectItems) {
+		List<ResourceItem> changedItems = projectItems.stream()
+				.filter(item -> !removed.contains(item) && !added.contains(item))
+				.collect(Collectors.toCollection(ArrayList::new));
+		for (ResourceItem item : added) {
+			if (item.project.equals(project)) changedItems.add(item);
+		}
+		return changedItems;
+	}
+}
@@ -0,0 +1,68 @@
+package dakara.eclipse.plugin.platform;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/*
+ * Workspace files sharded by project and types sharded by their container.
+ * A query only needs to rank the shards within its scope.
+ * Shards are never modified once created, changes produce a new corpus sharing all untouched shards.
+ */
+public class ResourceCorpus {
+	private final Map<String, List<ResourceItem>> fileShards;
+	private final Map<String, List<ResourceItem>> typeShards;
+	
+	private ResourceCorpus(Map<String, List<ResourceItem>> fileShards, Map<String, List<ResourceItem>> typeShards) {
+		this.fileShards = fileShards;
+		this.typeShards = typeShards;
+	}
+	
+	public static ResourceCorpus make(List<ResourceItem> files, List<ResourceItem> types) {
+		return new ResourceCorpus(files.stream().collect(Collectors.groupingBy(item -> item.project)),
+								  types.stream().collect(Collectors.groupingBy(item -> item.container)));
+	}
+	
+	/*
+	 * projects are only used for the project and working set scopes.
+	 * When no projects are known for those scopes the whole workspace is used.
+	 */
+	public List<List<ResourceItem>> shards(ResourceScope scope, Set<String> projects) {
+		List<List<ResourceItem>> shards = new ArrayList<>();
+		switch (scope) {
+		case PROJECT:
+		case WORKING_SET:
+			if (projects == null || projects.isEmpty()) {
+				shards.addAll(fileShards.values());
+				break;
+			}
+			for (String project : projects) {
+				List<ResourceItem> shard = fileShards.get(project);
+				if (shard != null) shards.add(shard);
+			}
+			break;
+		case WORKSPACE:
+			shards.addAll(fileShards.values());
+			break;
+		case WORKSPACE_AND_LIBRARIES:
+			shards.addAll(fileShards.values());
+			shards.addAll(typeShards.values());
+			break;
+		}
+		return shards;
+	}
+	
+	public ResourceCorpus withChanges(ResourceChangeBatch changes) {
+		Map<String, List<ResourceItem>> changedFileShards = new HashMap<>(fileShards);
+		for (String project : changes.projects()) {
+			List<ResourceItem> shard = changes.applyTo(project, fileShards.getOrDefault(project, Collections.emptyList()));
+			if (shard.isEmpty()) changedFileShards.remove(project);
+			else changedFileShards.put(project, shard);
+		}
+		return new ResourceCorpus(changedFileShards, typeShards);
+	}
+}
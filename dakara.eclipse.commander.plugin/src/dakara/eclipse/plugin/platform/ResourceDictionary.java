@@ -0,0 +1,65 @@
+package dakara.eclipse.plugin.platform;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/*
+ * Project names, directories and type containers repeat across thousands of resources.
+ * Each distinct value is held once here and every resource references that single instance.
+ * Values are only weakly held, once no resource of the current corpus references a value it is dropped,
+ * so directories of deleted files and corpora replaced on reload do not accumulate.
+ * This is called while harvesting in parallel, so lookups go through a concurrent map and never take a shared lock.
+ */
+public class ResourceDictionary {
+	private static final ConcurrentMap<WeakValue, WeakValue> values = new ConcurrentHashMap<>();
+	private static final ReferenceQueue<String> collectedValues = new ReferenceQueue<>();
+
+	public static String canonical(String value) {
+		if (value == null) return "";
+		removeCollectedValues();
+		final WeakValue weakValue = new WeakValue(value, collectedValues);
+		while (true) {
+			final WeakValue existingValue = values.putIfAbsent(weakValue, weakValue);
+			if (existingValue == null) return value;
+			final String existing = existingValue.get();
+			if (existing != null) return existing;
+			// collected but not removed yet
+			values.remove(existingValue, existingValue);
+		}
+	}
+
+	private static void removeCollectedValues() {
+		Reference<? extends String> collected;
+		while ((collected = collectedValues.poll()) != null) {
+			values.remove(collected, collected);
+		}
+	}
+
+	/*
+	 * Equal to another value holding an equal string, a collected value is only equal to itself
+	 */
+	private static class WeakValue extends WeakReference<String> {
+		private final int hash;
+
+		WeakValue(String value, ReferenceQueue<String> queue) {
+			super(value, queue);
+			this.hash = value.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (this == other) return true;
+			if (!(other instanceof WeakValue)) return false;
+			final String value = get();
+			return value != null && hash == other.hashCode() && value.equals(((WeakValue) other).get());
+		}
+	}
+}
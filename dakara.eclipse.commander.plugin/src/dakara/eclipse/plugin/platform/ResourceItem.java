@@ -1,17 +1,57 @@
 package dakara.eclipse.plugin.platform;
 
+import java.util.Objects;
+
+/*
+ * A path is stored split into its shared parts so that the repeated portions are not copied per resource.
+ * - workspace file: path is the project relative directory.
+ * - type: path is container|package/document.  The container and package directory are shared with
+ *   every other type from the same package.  The document name is only kept when it differs from the name (inner types).
+ */
 public class ResourceItem {
+	public static final String CONTAINER_SEPARATOR = "|";
 	public final String name;
-	public final String path;
 	public final String project;
+	public final String directory;
+	public final String container;
+	private final String documentName;
+	
 	public ResourceItem(String name, String path, String project) {
 		if (name == null) name = "";
 		if (path == null) path = "";
 		if (project == null) project = "";
 		
 		this.name = name;
-		this.path = path;
-		this.project = project;
+		this.project = ResourceDictionary.canonical(project);
+		
+		final int locationOfSeparator = path.indexOf(CONTAINER_SEPARATOR);
+		if (locationOfSeparator < 0) {
+			this.container = "";
+			this.directory = ResourceDictionary.canonical(path);
+			this.documentName = null;
+		} else {
+			this.container = ResourceDictionary.canonical(path.substring(0, locationOfSeparator));
+			final String documentPath = path.substring(locationOfSeparator + 1);
+			final int locationOfDocument = documentPath.lastIndexOf("/");
+			this.directory = ResourceDictionary.canonical(locationOfDocument >= 0 ? documentPath.substring(0, locationOfDocument) : "");
+			final String document = documentPath.substring(locationOfDocument + 1);
+			this.documentName = document.equals(name) ? null : document;
+		}
+	}
+	
+	public boolean isType() {
+		return container.length() > 0;
+	}
+	
+	/*
+	 * The full path as it was given on construction.
+	 * Built on request, intended for opening, history keys and other per item actions rather than ranking.
+	 */
+	public String path() {
+		if (!isType()) return directory;
+		final String document = documentName != null ? documentName : name;
+		if (directory.length() == 0) return container + CONTAINER_SEPARATOR + document;
+		return container + CONTAINER_SEPARATOR + directory + "/" + document;
 	}
 	
 	@Override
@@ -20,12 +60,13 @@ public class ResourceItem {
 		if (!(obj instanceof ResourceItem)) return false;
 		ResourceItem other = (ResourceItem) obj;
 		
-		if (name.equals(other.name) && path.equals(other.path) && project.equals(other.project)) return true;
+		if (name.equals(other.name) && directory.equals(other.directory) && project.equals(other.project) && 
+			container.equals(other.container) && Objects.equals(documentName, other.documentName)) return true;
 		return false;
 	}
 	
 	@Override
 	public int hashCode() {
-		return name.hashCode() ^ path.hashCode() ^ project.hashCode();
+		return name.hashCode() ^ directory.hashCode() ^ project.hashCode();
 	}
 }
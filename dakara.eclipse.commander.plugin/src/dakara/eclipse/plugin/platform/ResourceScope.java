@@ -0,0 +1,11 @@
+package dakara.eclipse.plugin.platform;
+
+public enum ResourceScope {
+	PROJECT("Current Project"), WORKING_SET("Working Set"), WORKSPACE("Workspace"), WORKSPACE_AND_LIBRARIES("Workspace and Libraries");
+	
+	public final String label;
+	
+	ResourceScope(String label) {
+		this.label = label;
+	}
+}
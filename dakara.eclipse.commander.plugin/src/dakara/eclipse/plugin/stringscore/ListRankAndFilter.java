@@ -2,9 +2,13 @@ package dakara.eclipse.plugin.stringscore;
 
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
 
 import dakara.eclipse.plugin.kavi.picklist.InputCommand;
@@ -16,6 +20,10 @@ public class ListRankAndFilter<T> {
 	private List<FieldResolver<T>> fields = new ArrayList<>();
 	private BiFunction<ScoreFilterOptions, String, Score> rankingStrategy;
 	private Function<T, String> sortFieldResolver;
+	private Supplier<ToIntFunction<T>> boostProvider = () -> item -> 0;
+	// boost worth one point of text score, and the most a boost can add
+	static final int BOOST_PER_SCORE_POINT = 10;
+	static final int MAX_BOOST = 2 * BOOST_PER_SCORE_POINT;
 	
 	public ListRankAndFilter(BiFunction<ScoreFilterOptions, String, Score> rankingStrategy, Function<T, String> sortFieldResolver) {
 		this.rankingStrategy = rankingStrategy;
@@ -33,19 +41,113 @@ public class ListRankAndFilter<T> {
 		fields.add(new FieldResolver<>(fieldId, fieldResolver));
 		return this;
 	}
+	
+	/*
+	 * The boost is added to the text score of a match, BOOST_PER_SCORE_POINT being worth one point and at most MAX_BOOST counting.
+	 * Frequently used items rise above similar matches as soon as they match, but never above a much better match.
+	 * The provider is asked once per ranking so the resolver can be a precomputed snapshot.
+	 */
+	public ListRankAndFilter<T> setBoostProvider(Supplier<ToIntFunction<T>> boostProvider) {
+		this.boostProvider = boostProvider;
+		return this;
+	}
 	// TODO - provide version that returns a stream
 	// this will allow better optimization of post filtering and sorting from the internal provider proxy
 	public List<RankedItem<T>> rankAndFilter(final InputCommand inputCommand, List<T> items) {
 		if (!inputCommand.isColumnFiltering && inputCommand.getColumnFilterOptions(0).rawInputText.length() == 0) return makeRankedList(items);
 
+		final ToIntFunction<T> boostResolver = boostProvider.get();
 		return items.parallelStream().
 				       map(item -> new RankedItem<>(item)).
-				       map(item -> setItemRank(item, inputCommand)).
+				       map(item -> setItemRank(item, inputCommand, boostResolver)).
 				       filter(item -> item.totalScore() > 0).
-				       sorted(Comparator.comparing((RankedItem<T> item) -> item.totalScore()).reversed().thenComparing(item -> sortFieldResolver.apply((T) item.dataItem))).
+				       sorted(rankThenSortFieldComparator()).
+					   collect(Collectors.toList());
+	}
+	
+	/*
+	 * Ranks each shard in parallel and merges the matches into a single ordered list.
+	 * Only the given shards are scanned, allowing callers to limit a query to a scope.
+	 */
+	public List<RankedItem<T>> rankAndFilterShards(final InputCommand inputCommand, List<List<T>> shards) {
+		if (!inputCommand.isColumnFiltering && inputCommand.getColumnFilterOptions(0).rawInputText.length() == 0) {
+			return makeRankedList(shards.stream().flatMap(List::stream).collect(Collectors.toList()));
+		}
+		
+		final ToIntFunction<T> boostResolver = boostProvider.get();
+		return shards.parallelStream().
+					   flatMap(shard -> shard.parallelStream().
+						       map(item -> new RankedItem<>(item)).
+						       map(item -> setItemRank(item, inputCommand, boostResolver)).
+						       filter(item -> item.totalScore() > 0)).
+					   sorted(rankThenSortFieldComparator()).
 					   collect(Collectors.toList());
 	}
 	
+	/*
+	 * Like rankAndFilterShards, but shards already ranked for the same query and corpus version keep their matches
+	 * and only shards added since are scanned.  A growing corpus is ranked again without scanning all of it.
+	 * Shards are told apart by identity, so a shard must not change once it has been ranked.
+	 */
+	public List<RankedItem<T>> rankAndFilterShards(final InputCommand inputCommand, List<List<T>> shards, RankedShards<T> rankedShards, long corpusVersion) {
+		if (!inputCommand.isColumnFiltering && inputCommand.getColumnFilterOptions(0).rawInputText.length() == 0) {
+			return makeRankedList(shards.stream().flatMap(List::stream).collect(Collectors.toList()));
+		}
+		
+		final Map<List<T>, List<RankedItem<T>>> previousMatches = rankedShards.matchesFor(inputCommand, corpusVersion);
+		final Map<List<T>, List<RankedItem<T>>> matchesByShard = new IdentityHashMap<>();
+		final ToIntFunction<T> boostResolver = boostProvider.get();
+		for (List<T> shard : shards) {
+			List<RankedItem<T>> matches = previousMatches.get(shard);
+			if (matches == null) {
+				matches = shard.parallelStream().
+						  map(item -> new RankedItem<>(item)).
+						  map(item -> setItemRank(item, inputCommand, boostResolver)).
+						  filter(item -> item.totalScore() > 0).
+						  collect(Collectors.toList());
+			}
+			matchesByShard.put(shard, matches);
+		}
+		rankedShards.update(inputCommand, corpusVersion, matchesByShard);
+		
+		return shards.stream().
+			   flatMap(shard -> matchesByShard.get(shard).stream()).
+			   sorted(rankThenSortFieldComparator()).
+			   collect(Collectors.toList());
+	}
+	
+	/*
+	 * Matches of each shard for the last query ranked, held by the caller between rankings
+	 */
+	public static class RankedShards<T> {
+		private InputCommand inputCommand;
+		private long corpusVersion;
+		private Map<List<T>, List<RankedItem<T>>> matchesByShard = new IdentityHashMap<>();
+		
+		private synchronized Map<List<T>, List<RankedItem<T>>> matchesFor(InputCommand inputCommand, long corpusVersion) {
+			if (this.inputCommand == null || this.corpusVersion != corpusVersion || !inputCommand.isFilterEqual(this.inputCommand)) return new IdentityHashMap<>();
+			return matchesByShard;
+		}
+		
+		private synchronized void update(InputCommand inputCommand, long corpusVersion, Map<List<T>, List<RankedItem<T>>> matchesByShard) {
+			this.inputCommand = inputCommand;
+			this.corpusVersion = corpusVersion;
+			this.matchesByShard = matchesByShard;
+		}
+	}
+	
+	private Comparator<RankedItem<T>> rankThenSortFieldComparator() {
+		return boostedScoreComparator().thenComparing(item -> sortFieldResolver.apply((T) item.dataItem));
+	}
+	
+	private Comparator<RankedItem<T>> boostedScoreComparator() {
+		return Comparator.comparingInt((RankedItem<T> item) -> boostedScore(item)).reversed().thenComparing(Comparator.comparingInt((RankedItem<T> item) -> item.boost).reversed());
+	}
+	
+	static int boostedScore(RankedItem<?> item) {
+		return item.totalScore() * BOOST_PER_SCORE_POINT + Math.min(item.boost, MAX_BOOST);
+	}
+	
 	public List<RankedItem<T>> rankAndFilterOrdered(final InputCommand inputCommand, List<T> items) {
 		RankedItemFactory<T> rankedItemFactory = new RankedItemFactory<>();
 		List<RankedItem<T>> rankedItems = new ArrayList<>();
@@ -53,10 +155,11 @@ public class ListRankAndFilter<T> {
 			rankedItems.add(rankedItemFactory.make(item));
 		}
 		if (!inputCommand.isColumnFiltering && inputCommand.getColumnFilterOptions(0).rawInputText.length() == 0) return makeRankedListOrdered(rankedItems);
+		final ToIntFunction<T> boostResolver = boostProvider.get();
 		return rankedItems.parallelStream().
-				       map(item -> setItemRank(item, inputCommand)).
+				       map(item -> setItemRank(item, inputCommand, boostResolver)).
 				       filter(item -> item.totalScore() > 0).
-				       sorted(Comparator.comparing((RankedItem<T> item) -> item.totalScore()).reversed().thenComparing(item -> item.order)).
+				       sorted(boostedScoreComparator().thenComparing(item -> item.order)).
 					   collect(Collectors.toList());
 	}
 	
@@ -79,7 +182,7 @@ public class ListRankAndFilter<T> {
 		   collect(Collectors.toList());
 	}
 	
-	private RankedItem<T> setItemRank(RankedItem<T> rankedItem, final InputCommand inputCommand) {
+	private RankedItem<T> setItemRank(RankedItem<T> rankedItem, final InputCommand inputCommand, final ToIntFunction<T> boostResolver) {
 		try {
 			rankedItem.setScoreModeByColumn(inputCommand.isColumnFiltering);
 			
@@ -95,6 +198,7 @@ public class ListRankAndFilter<T> {
 					rankedItem.addScore(scores.remove(0), field.fieldId);
 				} 
 			}
+			if (rankedItem.totalScore() > 0) rankedItem.boost = boostResolver.applyAsInt(rankedItem.dataItem);
 		} catch (Throwable e) {
 			e.printStackTrace();
 			// TODO need to figure out how to properly handle
@@ -2,6 +2,7 @@ package dakara.eclipse.plugin.stringscore;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
 
 import dakara.eclipse.plugin.stringscore.StringScore.Score;
 
@@ -10,6 +11,7 @@ public final class RankedItem<T> {
 	private Map<String, Score> scores = new HashMap<>();
 	private boolean scorePerColumn = false;
 	public int order = 0;
+	public int boost = 0;
 	private int totalScoreValue = 0;
 	private boolean scoreComputed = false;
 	
@@ -42,7 +44,7 @@ public final class RankedItem<T> {
 		
 		if (scorePerColumn) {
 			for (Score score : scores.values()) {
-				if (score.rank == 0) return 0;
+				if (score.rank == 0) return totalScoreValue = 0;
 				if (score.rank < 0) continue;
 				totalScoreValue += score.rank;
 			}
@@ -58,6 +60,19 @@ public final class RankedItem<T> {
 		return totalScoreValue;
 	}
 	
+	/*
+	 * Same item with the same matched characters in every column, so a row showing one can show the other unchanged
+	 */
+	public boolean isDisplayedAs(RankedItem<T> other) {
+		if (other == this) return true;
+		if (other == null || !dataItem.equals(other.dataItem) || scores.size() != other.scores.size()) return false;
+		for (Map.Entry<String, Score> entry : scores.entrySet()) {
+			final Score otherScore = other.scores.get(entry.getKey());
+			if (otherScore == null || !Objects.equals(entry.getValue().matches, otherScore.matches)) return false;
+		}
+		return true;
+	}
+	
 	@SuppressWarnings("rawtypes")
 	public boolean equals(Object obj) {
 		if (!(obj instanceof RankedItem)) return false;
@@ -0,0 +1,78 @@
+package dakara.eclipse.plugin.stringscore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+import dakara.eclipse.plugin.kavi.picklist.InputCommand;
+import dakara.eclipse.plugin.stringscore.ListRankAndFilter.RankedShards;
+
+/*
+ * Runs a mix of queries through the ranking so the scoring code is compiled before the first real keystroke.
+ * The queries are made from the sample itself the way users type them: leading characters, word prefixes,
+ * acronyms and column filters.  Queries are run until the time budget is spent or we are cancelled.
+ * The sample is ranked a shard at a time, the way streamed elements are, so the budget and cancellation
+ * are checked every few hundred items rather than once per pass over the whole sample.
+ */
+public class RankingWarmUp<T> {
+	static final int SHARD_SIZE = 250;
+	private final ListRankAndFilter<T> listRankAndFilter;
+	private final Function<T, String> textResolver;
+
+	public RankingWarmUp(ListRankAndFilter<T> listRankAndFilter, Function<T, String> textResolver) {
+		this.listRankAndFilter = listRankAndFilter;
+		this.textResolver = textResolver;
+	}
+
+	/*
+	 * Returns the number of queries that were run
+	 */
+	public int run(List<T> sample, long budgetMillis, BooleanSupplier cancelled) {
+		final List<String> queries = makeQueries(sample);
+		if (queries.isEmpty()) return 0;
+
+		final List<List<T>> shards = new ArrayList<>();
+		for (int index = 0; index < sample.size(); index += SHARD_SIZE) {
+			shards.add(sample.subList(index, Math.min(index + SHARD_SIZE, sample.size())));
+		}
+		final long deadline = System.currentTimeMillis() + budgetMillis;
+		int queryCount = 0;
+		while (true) {
+			final InputCommand inputCommand = InputCommand.parse(queries.get(queryCount % queries.size()));
+			final RankedShards<T> rankedShards = new RankedShards<>();
+			for (int shardCount = 1; shardCount <= shards.size(); shardCount++) {
+				if (cancelled.getAsBoolean() || System.currentTimeMillis() >= deadline) return queryCount;
+				listRankAndFilter.rankAndFilterShards(inputCommand, shards.subList(0, shardCount), rankedShards, 0);
+			}
+			queryCount++;
+		}
+	}
+
+	List<String> makeQueries(List<T> sample) {
+		List<String> queries = new ArrayList<>();
+		final int step = Math.max(1, sample.size() / 20);
+		for (int index = 0; index < sample.size(); index += step) {
+			final String text = textResolver.apply(sample.get(index));
+			if (text == null) continue;
+			final String[] words = text.trim().toLowerCase().split("\\s+");
+			if (words.length == 0 || words[0].isEmpty()) continue;
+
+			// typed one key at a time
+			for (int length = 1; length <= Math.min(4, words[0].length()); length++) {
+				queries.add(words[0].substring(0, length));
+			}
+			StringBuilder acronym = new StringBuilder();
+			StringBuilder wordPrefixes = new StringBuilder();
+			for (String word : words) {
+				if (word.isEmpty()) continue;
+				acronym.append(word.charAt(0));
+				wordPrefixes.append(word.substring(0, Math.min(2, word.length()))).append(' ');
+			}
+			queries.add(acronym.toString());
+			queries.add(wordPrefixes.toString().trim());
+			queries.add(words[0].substring(0, Math.min(3, words[0].length())) + ",");
+		}
+		return queries;
+	}
+}
@@ -4,9 +4,14 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 import dakara.eclipse.plugin.baseconverter.BaseAlpha26ConverterTest;
+import dakara.eclipse.plugin.command.settings.HistoryJournalTest;
 import dakara.eclipse.plugin.kavi.picklist.InputCommandTest;
+import dakara.eclipse.plugin.kavi.picklist.InternalContentProviderProxyTest;
+import dakara.eclipse.plugin.kavi.picklist.KaviListColumnsTest;
 import dakara.eclipse.plugin.kavi.picklist.ListRankAndSelectorTest;
 import dakara.eclipse.plugin.kavi.picklist.ListRankAndSelectorTest2;
+import dakara.eclipse.plugin.kavi.picklist.RefreshPipelineTest;
+import dakara.eclipse.plugin.stringscore.RankingWarmUpTest;
 import dakara.eclipse.plugin.stringscore.StringCursorTest;
 import dakara.eclipse.plugin.stringscore.StringScoreTest;
 
@@ -17,7 +22,12 @@ import dakara.eclipse.plugin.stringscore.StringScoreTest;
 	ListRankAndSelectorTest.class,
 	ListRankAndSelectorTest2.class,
 	InputCommandTest.class,
-	BaseAlpha26ConverterTest.class
+	BaseAlpha26ConverterTest.class,
+	HistoryJournalTest.class,
+	RankingWarmUpTest.class,
+	RefreshPipelineTest.class,
+	KaviListColumnsTest.class,
+	InternalContentProviderProxyTest.class
 })
 
 public class TestSuite {}
@@ -1,9 +1,13 @@
 package dakara.eclipse.plugin.command.settings;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Assert;
 import org.junit.Test;
 
 import dakara.eclipse.plugin.command.Constants;
+import dakara.eclipse.plugin.command.settings.HistoryJournal.JournalRecord;
+import dakara.eclipse.plugin.command.settings.HistoryJournal.Operation;
 import dakara.eclipse.plugin.command.settings.PersistedWorkingSet.HistoryKey;
 
 public class CommandDialogPersistedSettingsTest {
@@ -16,6 +20,55 @@ public class CommandDialogPersistedSettingsTest {
 		Assert.assertEquals("one", settings.getHistory().get(0).getHistoryItem().field1);
 	}
 	
+	@Test
+	public void removingFavoriteKeepsHistoryLimit() {
+		PersistedWorkingSet<TestItem> settings = new PersistedWorkingSet<>(Constants.BUNDLE_ID, false, 2, item -> new HistoryKey(item.field1), historyKey -> new TestItem(historyKey.keys.get(0), null, null) );
+		TestItem favorite = new TestItem("favorite", null, null);
+		settings.addToHistory(favorite).setHistoryPermanent(favorite, true);
+		settings.addToHistory(new TestItem("one", null, null));
+		settings.addToHistory(new TestItem("two", null, null));
+		Assert.assertEquals(3, settings.getHistory().size());
+		
+		settings.setHistoryPermanent(favorite, false);
+		Assert.assertEquals(2, settings.getHistory().size());
+		Assert.assertNull(settings.getHistoryEntry(new TestItem("one", null, null)));
+		Assert.assertNotNull(settings.getHistoryEntry(favorite));
+	}
+	
+	@Test
+	public void boostsFollowHistoryWithoutResolvingIt() {
+		AtomicInteger resolved = new AtomicInteger();
+		PersistedWorkingSet<TestItem> settings = new PersistedWorkingSet<>(Constants.BUNDLE_ID, false, 1, item -> new HistoryKey(item.field1), historyKey -> {
+			resolved.incrementAndGet();
+			return new TestItem(historyKey.keys.get(0), null, null);
+		});
+		TestItem one = new TestItem("one", null, null);
+		settings.addToHistory(one).addToHistory(one);
+		Assert.assertEquals(2 * PersistedWorkingSet.FRECENCY_BOOST_SCALE, settings.frecencyBoosts().applyAsInt(new TestItem("one", null, null)));
+		
+		// evicted by the history limit
+		settings.addToHistory(new TestItem("two", null, null));
+		Assert.assertEquals(0, settings.frecencyBoosts().applyAsInt(one));
+		Assert.assertEquals(PersistedWorkingSet.FRECENCY_BOOST_SCALE, settings.frecencyBoosts().applyAsInt(new TestItem("two", null, null)));
+		
+		settings.removeHistory(new TestItem("two", null, null));
+		Assert.assertEquals(0, settings.frecencyBoosts().applyAsInt(new TestItem("two", null, null)));
+		Assert.assertEquals(0, resolved.get());
+	}
+	
+	@Test
+	public void replayedUsesAlreadyInSnapshotAreNotCountedTwice() {
+		PersistedWorkingSet<TestItem> settings = new PersistedWorkingSet<>(Constants.BUNDLE_ID, false, 10, item -> new HistoryKey(item.field1), historyKey -> new TestItem(historyKey.keys.get(0), null, null) );
+		TestItem one = new TestItem("one", null, null);
+		settings.addToHistory(one);
+		
+		settings.replay(new JournalRecord(Operation.TOUCH, new HistoryKey("one"), 0, null));
+		Assert.assertEquals(PersistedWorkingSet.FRECENCY_BOOST_SCALE, settings.frecencyBoosts().applyAsInt(one));
+		
+		settings.replay(new JournalRecord(Operation.TOUCH, new HistoryKey("one"), System.currentTimeMillis() + 1000, null));
+		Assert.assertEquals(2 * PersistedWorkingSet.FRECENCY_BOOST_SCALE, settings.frecencyBoosts().applyAsInt(one));
+	}
+	
 	private class TestItem {
 		public final String field1;
 		public final String field2;
@@ -0,0 +1,74 @@
+package dakara.eclipse.plugin.command.settings;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import dakara.eclipse.plugin.command.settings.HistoryJournal.JournalRecord;
+import dakara.eclipse.plugin.command.settings.HistoryJournal.Operation;
+import dakara.eclipse.plugin.command.settings.PersistedWorkingSet.HistoryKey;
+
+public class HistoryJournalTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void recordsAreReadBackInOrder() throws IOException {
+		HistoryJournal journal = new HistoryJournal(folder.getRoot().toPath());
+		journal.append(Arrays.asList(new JournalRecord(Operation.TOUCH, new HistoryKey("one", "a"))));
+		journal.append(Arrays.asList(new JournalRecord(Operation.FAVORITE, new HistoryKey("two")), new JournalRecord(Operation.REMOVE_ALL_NON_FAVORITES, null)));
+		
+		List<JournalRecord> records = new HistoryJournal(folder.getRoot().toPath()).readJournal();
+		Assert.assertEquals(3, records.size());
+		Assert.assertEquals(Operation.TOUCH, records.get(0).operation);
+		Assert.assertEquals(new HistoryKey("one", "a"), records.get(0).key);
+		Assert.assertEquals(new HistoryKey("two"), records.get(1).key);
+		Assert.assertNull(records.get(2).key);
+	}
+	
+	@Test
+	public void damagedTailIsIgnored() throws IOException {
+		HistoryJournal journal = new HistoryJournal(folder.getRoot().toPath());
+		journal.append(Arrays.asList(new JournalRecord(Operation.TOUCH, new HistoryKey("one"))));
+		Path journalFile = folder.getRoot().toPath().resolve(HistoryJournal.JOURNAL_FILE);
+		Files.write(journalFile, "{\"operation\":\"TOU".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+		
+		Assert.assertEquals(1, journal.readJournal().size());
+	}
+	
+	@Test
+	public void recordsAppendedAfterDamagedTailAreKept() throws IOException {
+		HistoryJournal journal = new HistoryJournal(folder.getRoot().toPath());
+		journal.append(Arrays.asList(new JournalRecord(Operation.TOUCH, new HistoryKey("one"))));
+		Path journalFile = folder.getRoot().toPath().resolve(HistoryJournal.JOURNAL_FILE);
+		Files.write(journalFile, "{\"operation\":\"TOU".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+		journal.append(Arrays.asList(new JournalRecord(Operation.TOUCH, new HistoryKey("two")), new JournalRecord(Operation.TOUCH, new HistoryKey("three"))));
+		
+		List<JournalRecord> records = new HistoryJournal(folder.getRoot().toPath()).readJournal();
+		Assert.assertEquals(3, records.size());
+		Assert.assertEquals(new HistoryKey("two"), records.get(1).key);
+		Assert.assertEquals(new HistoryKey("three"), records.get(2).key);
+	}
+	
+	@Test
+	public void compactReplacesSnapshotAndClearsJournal() throws IOException {
+		HistoryJournal journal = new HistoryJournal(folder.getRoot().toPath());
+		Assert.assertFalse(journal.exists());
+		journal.append(Arrays.asList(new JournalRecord(Operation.TOUCH, new HistoryKey("one"))));
+		journal.compact("{\"version\":2}");
+		
+		Assert.assertTrue(journal.exists());
+		Assert.assertEquals("{\"version\":2}", journal.readSnapshot());
+		Assert.assertEquals(0, journal.readJournal().size());
+		Assert.assertEquals(0, journal.journalSize());
+	}
+}
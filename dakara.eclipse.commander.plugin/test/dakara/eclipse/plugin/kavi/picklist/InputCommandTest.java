@@ -59,4 +59,12 @@ public class InputCommandTest {
 		Assert.assertEquals("abc", inputCommand.getColumnFilterOptions(0).filterTextCursorPrimitive.asString());
 		Assert.assertEquals(true, inputCommand.getColumnFilterOptions(0).inverseMatch);
 	}
+	
+	@Test
+	public void queryKeyIgnoresFastSelectAndCase() {
+		Assert.assertEquals("pom", InputCommand.parse(" POM ").queryKey());
+		Assert.assertEquals("pom", InputCommand.parse("Pom/b").queryKey());
+		Assert.assertEquals("app,ctx", InputCommand.parse("app,ctx//a").queryKey());
+		Assert.assertEquals("", InputCommand.parse("/a").queryKey());
+	}
 }
@@ -0,0 +1,47 @@
+package dakara.eclipse.plugin.kavi.picklist;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import dakara.eclipse.plugin.stringscore.RankedItem;
+
+public class InternalContentProviderProxyTest {
+	private final List<String> resolved = new ArrayList<>();
+	private final List<String> remembered = new ArrayList<>();
+	
+	@Test
+	public void disabledItemIsNotResolved() {
+		InternalContentProviderProxy<String> provider = makeProvider("disabled", "enabled");
+		
+		Assert.assertFalse(provider.handleSelectionAction());
+		Assert.assertTrue(resolved.isEmpty());
+		Assert.assertTrue(remembered.isEmpty());
+	}
+	
+	@Test
+	public void enabledItemIsResolved() {
+		InternalContentProviderProxy<String> provider = makeProvider("disabled", "enabled");
+		provider.moveCursorDown();
+		
+		Assert.assertTrue(provider.handleSelectionAction());
+		Assert.assertEquals(Arrays.asList("enabled"), resolved);
+		Assert.assertEquals(Arrays.asList("enabled"), remembered);
+	}
+	
+	private InternalContentProviderProxy<String> makeProvider(String ... items) {
+		List<RankedItem<String>> entries = new ArrayList<>();
+		for (String item : items) entries.add(new RankedItem<>(item));
+		
+		InternalContentProviderProxy<String> provider = new InternalContentProviderProxy<>(null, "test", inputState -> entries);
+		provider.setResolvedAction(resolved::add)
+				.setQueryChoiceMemo(query -> null, (query, item) -> remembered.add(item))
+				.setEnabledProvider(item -> !item.equals("disabled"));
+		InputState inputState = new InputState(InputCommand.parse("abled"), provider, null);
+		provider.showTableEntries(entries, inputState, true);
+		return provider;
+	}
+}
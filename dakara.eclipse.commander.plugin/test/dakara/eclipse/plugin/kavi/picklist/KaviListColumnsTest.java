@@ -0,0 +1,37 @@
+package dakara.eclipse.plugin.kavi.picklist;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.eclipse.swt.custom.StyleRange;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KaviListColumnsTest {
+	@Test
+	public void adjacentMatchesShareOneStyle() {
+		StyleRange[] styles = KaviListColumns.createStyles(Arrays.asList(0, 1, 2, 5, 6, 9), null);
+		Assert.assertEquals(3, styles.length);
+		assertRange(styles[0], 0, 3);
+		assertRange(styles[1], 5, 2);
+		assertRange(styles[2], 9, 1);
+	}
+	
+	@Test
+	public void outOfOrderMatchesAreMerged() {
+		// words matched out of order report their positions out of order
+		StyleRange[] styles = KaviListColumns.createStyles(Arrays.asList(4, 5, 6, 0, 1, 2, 3), null);
+		Assert.assertEquals(1, styles.length);
+		assertRange(styles[0], 0, 7);
+	}
+	
+	@Test
+	public void noMatchesNoStyles() {
+		Assert.assertEquals(0, KaviListColumns.createStyles(Collections.emptyList(), null).length);
+	}
+	
+	private void assertRange(StyleRange style, int start, int length) {
+		Assert.assertEquals(start, style.start);
+		Assert.assertEquals(length, style.length);
+	}
+}
@@ -8,9 +8,11 @@ import org.junit.Before;
 import org.junit.Test;
 
 import dakara.eclipse.plugin.stringscore.ListRankAndFilter;
+import dakara.eclipse.plugin.stringscore.ListRankAndFilter.RankedShards;
 import dakara.eclipse.plugin.stringscore.RankedItem;
 import dakara.eclipse.plugin.stringscore.StringScore;
 import dakara.eclipse.plugin.stringscore.StringScoreRanking;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 
 public class ListRankAndSelectorTest {
 	private ListRankAndFilter<TestItem> rankSelectorMultiColumn = null;
@@ -73,6 +75,17 @@ public class ListRankAndSelectorTest {
 		Assert.assertEquals(6, (listItem.getColumnScore("f2").matches.size()));
 	}
 	
+	@Test
+	public void sameMatchesAreDisplayedTheSame() {
+		RankedItem<TestItem> first = rankSelectorMultiColumn.rankAndFilter(InputCommand.parse("def"), itemList).get(0);
+		RankedItem<TestItem> again = rankSelectorMultiColumn.rankAndFilter(InputCommand.parse("def"), itemList).get(0);
+		RankedItem<TestItem> refined = rankSelectorMultiColumn.rankAndFilter(InputCommand.parse("def g"), itemList).get(0);
+		Assert.assertNotSame(first, again);
+		Assert.assertTrue(first.isDisplayedAs(again));
+		Assert.assertEquals(first, refined);
+		Assert.assertFalse(first.isDisplayedAs(refined));
+	}
+	
 	@Test
 	public void spaceAtEndShouldNotMatch() {
 		InputCommand inputCommand = InputCommand.parse("xyz ");
@@ -155,6 +168,77 @@ public class ListRankAndSelectorTest {
 		Assert.assertEquals(2, listItems.size());
 	}
 	
+	@Test
+	public void boostOrdersEqualScores() {
+		InputCommand inputCommand = InputCommand.parse("abc");
+		List<RankedItem<TestItem>> listItems = rankSelectorMultiColumn.rankAndFilter(inputCommand, itemList);
+		RankedItem<TestItem> lastItem = listItems.get(listItems.size() - 1);
+		
+		rankSelectorMultiColumn.setBoostProvider(() -> item -> item == lastItem.dataItem ? 1 : 0);
+		List<RankedItem<TestItem>> boostedItems = rankSelectorMultiColumn.rankAndFilter(inputCommand, itemList);
+		Assert.assertEquals(listItems.size(), boostedItems.size());
+		RankedItem<TestItem> firstWithSameScore = boostedItems.stream().filter(item -> item.totalScore() == lastItem.totalScore()).findFirst().get();
+		Assert.assertEquals(lastItem.dataItem, firstWithSameScore.dataItem);
+	}
+	
+	@Test
+	public void boostLiftsSimilarMatchesOnly() {
+		// the text score is the number given as the item's only column
+		ListRankAndFilter<TestItem> rankByNumber = new ListRankAndFilter<>((filter, text) -> new StringScore.Score(Integer.parseInt(text), new IntArrayList()), item -> item.field1);
+		rankByNumber.addField("f1", item -> item.field1);
+		List<TestItem> items = new ArrayList<>();
+		items.add(new TestItem("5", "best", ""));
+		items.add(new TestItem("4", "close", ""));
+		items.add(new TestItem("2", "far", ""));
+		
+		rankByNumber.setBoostProvider(() -> item -> item.field2.equals("best") ? 0 : 1000);
+		List<RankedItem<TestItem>> listItems = rankByNumber.rankAndFilter(InputCommand.parse("x"), items);
+		Assert.assertEquals("close", listItems.get(0).dataItem.field2);
+		Assert.assertEquals("best",  listItems.get(1).dataItem.field2);
+		Assert.assertEquals("far",   listItems.get(2).dataItem.field2);
+	}
+	
+	@Test
+	public void shardsRankedAsOneList() {
+		InputCommand inputCommand = InputCommand.parse("abc");
+		List<List<TestItem>> shards = new ArrayList<>();
+		shards.add(itemList.subList(0, 6));
+		shards.add(itemList.subList(6, itemList.size()));
+		List<RankedItem<TestItem>> shardedItems = rankSelectorMultiColumn.rankAndFilterShards(inputCommand, shards);
+		List<RankedItem<TestItem>> listItems = rankSelectorMultiColumn.rankAndFilter(inputCommand, itemList);
+		Assert.assertEquals(listItems, shardedItems);
+	}
+	
+	@Test
+	public void onlyGivenShardsAreRanked() {
+		InputCommand inputCommand = InputCommand.parse("abc");
+		List<List<TestItem>> shards = new ArrayList<>();
+		shards.add(itemList.subList(6, itemList.size()));
+		List<RankedItem<TestItem>> listItems = rankSelectorMultiColumn.rankAndFilterShards(inputCommand, shards);
+		Assert.assertEquals(2, listItems.size());
+		Assert.assertEquals("7", listItems.get(0).dataItem.field1);
+	}
+	
+	@Test
+	public void onlyShardsAddedSinceAreRankedAgain() {
+		InputCommand inputCommand = InputCommand.parse("abc");
+		RankedShards<TestItem> rankedShards = new RankedShards<>();
+		List<List<TestItem>> shards = new ArrayList<>();
+		shards.add(itemList.subList(0, 6));
+		List<RankedItem<TestItem>> firstItems = rankSelectorMultiColumn.rankAndFilterShards(inputCommand, shards, rankedShards, 1);
+		
+		shards.add(itemList.subList(6, itemList.size()));
+		List<RankedItem<TestItem>> listItems = rankSelectorMultiColumn.rankAndFilterShards(inputCommand, shards, rankedShards, 1);
+		Assert.assertEquals(rankSelectorMultiColumn.rankAndFilter(inputCommand, itemList), listItems);
+		// matches of the first shard were kept
+		Assert.assertTrue(listItems.contains(firstItems.get(0)));
+		Assert.assertSame(firstItems.get(0), listItems.get(listItems.indexOf(firstItems.get(0))));
+		
+		// another corpus version ranks everything again
+		List<RankedItem<TestItem>> reloadedItems = rankSelectorMultiColumn.rankAndFilterShards(inputCommand, shards, rankedShards, 2);
+		Assert.assertNotSame(firstItems.get(0), reloadedItems.get(reloadedItems.indexOf(firstItems.get(0))));
+	}
+	
 	private class TestItem {
 		public final String field1;
 		public final String field2;
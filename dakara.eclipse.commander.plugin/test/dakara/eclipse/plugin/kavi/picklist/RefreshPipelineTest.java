@@ -0,0 +1,124 @@
+package dakara.eclipse.plugin.kavi.picklist;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RefreshPipelineTest {
+	// stands in for the display thread, results are applied there in order
+	private final ExecutorService display = Executors.newSingleThreadExecutor();
+	private final AtomicInteger running = new AtomicInteger();
+	private final AtomicInteger maxRunning = new AtomicInteger();
+	private final AtomicReference<String> applied = new AtomicReference<>();
+	private final List<Long> appliedVersions = Collections.synchronizedList(new ArrayList<>());
+	
+	private final RefreshPipeline pipeline = new RefreshPipeline("test refresh", (filter, ticket) -> {
+		maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+		try {
+			rank(ticket);
+		} finally {
+			running.decrementAndGet();
+		}
+		display.execute(() -> {
+			if (ticket.isStale()) return;
+			applied.set(filter);
+			appliedVersions.add(ticket.version);
+		});
+	});
+	
+	private void rank(RefreshPipeline.Ticket ticket) {
+		long work = 0;
+		for (int index = 0; index < 200000 && !ticket.isStale(); index++) {
+			work += index % 7;
+		}
+		if (work < 0) throw new IllegalStateException();
+	}
+	
+	@After
+	public void dispose() {
+		pipeline.dispose();
+		display.shutdownNow();
+	}
+	
+	@Test
+	public void firstKeyIsNotDebounced() throws InterruptedException {
+		final CountDownLatch refreshed = new CountDownLatch(1);
+		RefreshPipeline leadingPipeline = new RefreshPipeline("test leading", (filter, ticket) -> refreshed.countDown());
+		final long start = System.currentTimeMillis();
+		leadingPipeline.request("a", 2000);
+		Assert.assertTrue(refreshed.await(1000, TimeUnit.MILLISECONDS));
+		Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+		leadingPipeline.dispose();
+	}
+	
+	@Test
+	public void burstOfKeysRunsOnlyTheLatest() throws InterruptedException {
+		final List<String> refreshedFilters = Collections.synchronizedList(new ArrayList<>());
+		RefreshPipeline burstPipeline = new RefreshPipeline("test burst", (filter, ticket) -> refreshedFilters.add(filter));
+		burstPipeline.request("a", 100);
+		Thread.sleep(50);
+		burstPipeline.request("ab", 100);
+		burstPipeline.request("abc", 100);
+		burstPipeline.request("abcd", 100);
+		Thread.sleep(400);
+		Assert.assertEquals(2, refreshedFilters.size());
+		Assert.assertEquals("a", refreshedFilters.get(0));
+		Assert.assertEquals("abcd", refreshedFilters.get(1));
+		burstPipeline.dispose();
+	}
+	
+	@Test
+	public void stressNeverRanksConcurrentlyOrAppliesStaleResults() throws InterruptedException {
+		final int typists = 4;
+		final int keysPerTypist = 500;
+		final ExecutorService keyboard = Executors.newFixedThreadPool(typists);
+		final CountDownLatch typed = new CountDownLatch(typists);
+		final AtomicReference<String> lastRequested = new AtomicReference<>();
+		final Object requestLock = new Object();
+		for (int typist = 0; typist < typists; typist++) {
+			final int typistId = typist;
+			keyboard.execute(() -> {
+				for (int key = 0; key < keysPerTypist; key++) {
+					String filter = typistId + "-" + key;
+					synchronized (requestLock) {
+						pipeline.request(filter, key % 3);
+						lastRequested.set(filter);
+					}
+					if (key % 50 == 0) sleep(2);
+				}
+				typed.countDown();
+			});
+		}
+		Assert.assertTrue(typed.await(30, TimeUnit.SECONDS));
+		keyboard.shutdown();
+		
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (!lastRequested.get().equals(applied.get()) && System.currentTimeMillis() < deadline) sleep(10);
+		
+		Assert.assertEquals(1, maxRunning.get());
+		Assert.assertEquals(lastRequested.get(), applied.get());
+		synchronized (appliedVersions) {
+			for (int index = 1; index < appliedVersions.size(); index++) {
+				Assert.assertTrue("stale result applied after a newer one", appliedVersions.get(index - 1) < appliedVersions.get(index));
+			}
+		}
+	}
+	
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
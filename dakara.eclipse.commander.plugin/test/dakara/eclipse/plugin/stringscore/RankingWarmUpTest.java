@@ -0,0 +1,49 @@
+package dakara.eclipse.plugin.stringscore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RankingWarmUpTest {
+	private final List<String> sample = Arrays.asList("Open Type", "Show View", "Run As Java Application", "Git Commit");
+	
+	private RankingWarmUp<String> makeWarmUp() {
+		ListRankAndFilter<String> listRankAndFilter = ListRankAndFilter.make(item -> item);
+		listRankAndFilter.addField("label", item -> item);
+		return new RankingWarmUp<>(listRankAndFilter, item -> item);
+	}
+	
+	@Test
+	public void queriesAreMadeTheWayUsersType() {
+		List<String> queries = makeWarmUp().makeQueries(sample);
+		Assert.assertTrue(queries.containsAll(Arrays.asList("r", "ru", "run", "raja", "ru as ja ap", "run,")));
+	}
+	
+	@Test
+	public void stopsWhenCancelled() {
+		Assert.assertEquals(0, makeWarmUp().run(sample, 10000, () -> true));
+	}
+	
+	@Test
+	public void stopsWithinAPassOverTheSample() {
+		List<String> largeSample = new ArrayList<>();
+		for (int index = 0; index < 4 * RankingWarmUp.SHARD_SIZE; index++) largeSample.add(sample.get(index % sample.size()) + " " + index);
+		AtomicInteger checks = new AtomicInteger();
+		// cancelled while the second shard of the first query is next
+		int queryCount = makeWarmUp().run(largeSample, 10000, () -> checks.incrementAndGet() > 1);
+		Assert.assertEquals(0, queryCount);
+		Assert.assertEquals(2, checks.get());
+	}
+	
+	@Test
+	public void stopsWhenBudgetIsSpent() {
+		final long start = System.currentTimeMillis();
+		int queryCount = makeWarmUp().run(sample, 100, () -> false);
+		Assert.assertTrue(queryCount > 0);
+		Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+	}
+}
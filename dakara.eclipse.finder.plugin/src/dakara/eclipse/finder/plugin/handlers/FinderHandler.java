@@ -1,6 +1,8 @@
 package dakara.eclipse.finder.plugin.handlers;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -34,7 +36,10 @@ import dakara.eclipse.plugin.kavi.picklist.InternalCommandContextProviderFactory
 import dakara.eclipse.plugin.kavi.picklist.KaviPickListDialog;
 import dakara.eclipse.plugin.log.EclipsePluginLogger;
 import dakara.eclipse.plugin.platform.EclipseWorkbench;
+import dakara.eclipse.plugin.platform.ResourceChangeBatch;
+import dakara.eclipse.plugin.platform.ResourceCorpus;
 import dakara.eclipse.plugin.platform.ResourceItem;
+import dakara.eclipse.plugin.platform.ResourceScope;
 import dakara.eclipse.plugin.stringscore.FieldResolver;
 import dakara.eclipse.plugin.stringscore.ListRankAndFilter;
 import dakara.eclipse.plugin.stringscore.RankedItem;
@@ -52,8 +57,15 @@ public class FinderHandler extends AbstractHandler implements IStartup {
 	private static EclipsePluginLogger logger = new EclipsePluginLogger(Constants.BUNDLE_ID);
 	private boolean initialized = false;
 	private PersistedWorkingSet<ResourceItem> settingsStore = null;
-	private List<ResourceItem> files = null;
-	private long lastResourceRefresh = 0l;
+	private final AtomicReference<ResourceCorpus> corpus = new AtomicReference<>();
+	// changes arriving while there is no corpus, applied to the corpus once it has been loaded
+	private final ResourceChangeBatch changesWhileLoading = new ResourceChangeBatch();
+	private volatile ResourceScope scope = ResourceScope.WORKSPACE_AND_LIBRARIES;
+	private volatile Set<String> scopeProjects = Collections.emptySet();
+	private static final long RESOURCE_CHANGE_BATCH_INTERVAL = 1000;
+	private KaviPickListDialog<ResourceItem> finder;
+	// page of the latest invocation, the reused dialog opens files in it
+	private volatile IWorkbenchPage workbenchPage;
 	
 	// NOTE: early startup creates another instance of this class separate from the instance used for execute
 	// we should do this differently
@@ -68,35 +80,61 @@ public class FinderHandler extends AbstractHandler implements IStartup {
 			IWorkbenchPage workbenchPage = PlatformUI.getWorkbench().getWorkbenchWindows()[0].getActivePage();
 			EclipseWorkbench.createListenerForEditorFocusChanges(workbenchPage, resourceItem -> settingsStore.addToHistory(resourceItem).save());
 			
-			EclipseWorkbench.notifyResourceAddedOrRemoved(() -> {
-				files = null;
-				logger.info("resource changed, clearing cache");
+			EclipseWorkbench.notifyResourceAddedOrRemoved(RESOURCE_CHANGE_BATCH_INTERVAL, changes -> {
+				synchronized (changesWhileLoading) {
+					ResourceCorpus currentCorpus = corpus.get();
+					if (currentCorpus == null) {
+						// a load may be in progress and miss these
+						changesWhileLoading.merge(changes);
+						return;
+					}
+					if (changes.isReloadRequired()) {
+						clearCorpus("projects changed, clearing cache");
+						return;
+					}
+					// skip if the cache was cleared while applying
+					corpus.compareAndSet(currentCorpus, currentCorpus.withChanges(changes));
+				}
 			});		
+			EclipseWorkbench.notifyWorkspaceTypesChanged(() -> clearCorpus("types have changed, clearing cache"));
 		}
 	}
 	
 	@Override
 	public Object execute(ExecutionEvent event) throws ExecutionException {
 		initialize();
-		invalidateTypesIfNeeded();
-		IWorkbenchPage workbenchPage = HandlerUtil.getActiveWorkbenchWindowChecked(event).getActivePage();
+		workbenchPage = HandlerUtil.getActiveWorkbenchWindowChecked(event).getActivePage();
+		updateScopeProjects(workbenchPage);
+		
+		// the dialog is hidden between uses and only needs to be built again once its shell has been disposed
+		if (finder != null && finder.canShow()) {
+			finder.setCurrentProvider(settingsStore.getContentMode());
+			finder.setAutoCloseOnFocusLost(settingsStore.getAutoCloseFocusLost());
+			finder.setBounds(800, 400);
+			finder.show();
+			return null;
+		}
+		
 		IWorkspaceRoot workspace = ResourcesPlugin.getWorkspace().getRoot();
 		
 		FieldResolver<ResourceItem> nameResolver    = new FieldResolver<>("name",    resource -> resource.name);
-		FieldResolver<ResourceItem> pathResolver    = new FieldResolver<>("path",    resource -> extractPath(resource.path));
+		FieldResolver<ResourceItem> pathResolver    = new FieldResolver<>("path",    resource -> extractPath(resource));
 		FieldResolver<ResourceItem> projectResolver = new FieldResolver<>("project", resource -> resource.project);
 		
-		KaviPickListDialog<ResourceItem> finder = new KaviPickListDialog<>();
-		finder.setListContentProvider("discovery", listContentProvider(listRankAndFilter(nameResolver, pathResolver, projectResolver), this::getAllFileAndTypeResources))
+		finder = new KaviPickListDialog<>();
+		finder.setReusable(true);
+		finder.setListContentProvider("discovery", listContentProvider(listRankAndFilter(nameResolver, pathResolver, projectResolver).setBoostProvider(settingsStore::frecencyBoosts), this::getScopedResources))
 			  .setMultiResolvedAction(resourceItems -> handleSelectionAction(settingsStore, workbenchPage, workspace, resourceItems))
+			  .setQueryChoiceMemo(settingsStore::recallChoice, settingsStore::rememberChoice)
 			  .setShowAllWhenNoFilter(false)
 			  .setDebounceTimeProvider(inputCommand -> inputCommand.countFilterableCharacters() > 2 ? 50:200)
 			  .addColumn(nameResolver.fieldId, nameResolver.fieldResolver).widthPercent(30)
 			  .addColumn(projectResolver.fieldId, projectResolver.fieldResolver).widthPercent(30).fontColor(155, 103, 4)
 			  .addColumn(pathResolver.fieldId, pathResolver.fieldResolver).widthPercent(40).italic().fontColor(100, 100, 100).backgroundColor(250, 250, 250);
 		
-		finder.setListContentProvider("working", listContentProviderWorkingSet(listRankAndFilter(nameResolver, pathResolver, projectResolver), settingsStore))
+		finder.setListContentProvider("working", listContentProviderWorkingSet(listRankAndFilter(nameResolver, pathResolver, projectResolver).setBoostProvider(settingsStore::frecencyBoosts), settingsStore))
 			  .setMultiResolvedAction(resourceItems -> handleSelectionAction(settingsStore, workbenchPage, workspace, resourceItems))
+			  .setQueryChoiceMemo(settingsStore::recallChoice, settingsStore::rememberChoice)
 			  .addColumn(nameResolver.fieldId, nameResolver.fieldResolver).widthPercent(30).setMarkerIndicatorProvider(item -> { 
 					HistoryEntry historyEntry = settingsStore.getHistoryEntry(item);
 					if (historyEntry == null) return false;
@@ -109,6 +147,7 @@ public class FinderHandler extends AbstractHandler implements IStartup {
 		InternalCommandContextProvider contextProvider = InternalCommandContextProviderFactory.makeProvider(finder, settingsStore);
 		InternalCommandContextProviderFactory.addWorkingSetCommands(contextProvider, finder, settingsStore);
 		InternalCommandContextProviderFactory.addExportImportCommands(contextProvider, finder, settingsStore, "finder-settings_" + EclipseWorkbench.workspaceName() + ".json");
+		addScopeCommands(contextProvider, finder);
 		InternalCommandContextProviderFactory.installProvider(contextProvider, finder);
 		
 		finder.setCurrentProvider(settingsStore.getContentMode());
@@ -118,44 +157,81 @@ public class FinderHandler extends AbstractHandler implements IStartup {
 		return null;
 	}
 	
-	private List<ResourceItem> getAllFileAndTypeResources() {
-		if (files == null) {
-			lastResourceRefresh = System.currentTimeMillis();
+	private ResourceCorpus getResourceCorpus() {
+		// listeners may clear the cache from another thread at any time
+		ResourceCorpus currentCorpus = corpus.get();
+		if (currentCorpus == null) {
 			logger.info("loading all resources and types from workspace");
-			files = EclipseWorkbench.collectAllWorkspaceFiles();	
-			files.addAll(EclipseWorkbench.collectAllWorkspaceTypes());
+			final boolean indexingInProgress = EclipseWorkbench.isIndexingInProgress();
+			synchronized (changesWhileLoading) {
+				// anything queued so far is part of what we are about to collect
+				changesWhileLoading.clear();
+			}
+			currentCorpus = ResourceCorpus.make(EclipseWorkbench.collectAllWorkspaceFiles(), EclipseWorkbench.collectAllWorkspaceTypes());
+			synchronized (changesWhileLoading) {
+				// changes are applied again when they were already collected, which leaves the corpus the same
+				if (changesWhileLoading.isReloadRequired()) {
+					logger.info("projects changed while loading, cache will be reloaded");
+				} else {
+					if (!changesWhileLoading.isEmpty()) currentCorpus = currentCorpus.withChanges(changesWhileLoading);
+					corpus.set(currentCorpus);
+				}
+				changesWhileLoading.clear();
+			}
+			if (indexingInProgress) {
+				EclipseWorkbench.notifyWhenIndexingComplete(() -> clearCorpus("indexing completed, clearing cache"));
+			}
+		}
+		return currentCorpus;
+	}
+	
+	/*
+	 * Also marks a load in progress as outdated, so it does not keep what it collected before the change
+	 */
+	private void clearCorpus(String reason) {
+		synchronized (changesWhileLoading) {
+			changesWhileLoading.requireReload();
+			corpus.set(null);
+			logger.info(reason);
 		}
-		return files;
 	}
 	
-	private void invalidateTypesIfNeeded() {
-		if (files == null) return; // no need to do anything if files haven't been cached
-		if (!EclipseWorkbench.hasWorkspaceTypesChanged(lastResourceRefresh)) return;
-		logger.info("types have changed, invalidating cache");
-		files = null;
+	private List<List<ResourceItem>> getScopedResources() {
+		return getResourceCorpus().shards(scope, scopeProjects);
+	}
+	
+	private void updateScopeProjects(IWorkbenchPage workbenchPage) {
+		if (scope == ResourceScope.PROJECT) scopeProjects = EclipseWorkbench.activeEditorProject(workbenchPage);
+		else if (scope == ResourceScope.WORKING_SET) scopeProjects = EclipseWorkbench.workingSetProjects(workbenchPage);
+		else scopeProjects = Collections.emptySet();
+	}
+	
+	private void addScopeCommands(InternalCommandContextProvider contextProvider, KaviPickListDialog<ResourceItem> finder) {
+		for (ResourceScope resourceScope : ResourceScope.values()) {
+			contextProvider.addCommand("discovery", command -> "Scope: " + resourceScope.label + (resourceScope == scope ? " (current)" : ""), (provider, command) -> {
+				scope = resourceScope;
+				updateScopeProjects(workbenchPage);
+				finder.togglePreviousProvider().refreshFromContentProvider();
+			});
+		}
 	}
 	
 	private PersistedWorkingSet<ResourceItem> createSettingsStore() {
 		Function<HistoryKey, ResourceItem> historyItemResolver = historyKey -> new ResourceItem(historyKey.keys.get(0), historyKey.keys.get(2), historyKey.keys.get(1));
-		PersistedWorkingSet<ResourceItem> historyStore = new PersistedWorkingSet<>(Constants.BUNDLE_ID, true, 100, item -> new HistoryKey(item.name, item.project, item.path), historyItemResolver);
+		PersistedWorkingSet<ResourceItem> historyStore = new PersistedWorkingSet<>(Constants.BUNDLE_ID, true, 100, item -> new HistoryKey(item.name, item.project, item.path()), historyItemResolver);
 		historyStore.load();
 		
 		return historyStore;
 	}
 	
-	private String extractPath(String jarPathAndClass) {
-		int startLocation = 0;
-		int endLocation = jarPathAndClass.length();
+	private String extractPath(ResourceItem resource) {
+		// types keep their package directory separate from the container
+		if (resource.isType()) return resource.directory;
 		
-		final int locationOfSeparator = jarPathAndClass.indexOf("|");
-		if (locationOfSeparator >= 0) startLocation = locationOfSeparator + 1;
-		
-		final int locationOfClass = jarPathAndClass.lastIndexOf(("/"));
-		if (locationOfClass >=0 ) endLocation = locationOfClass;
-
-		if (endLocation < startLocation) return ""; // There was no path
+		final int locationOfLastDirectory = resource.directory.lastIndexOf("/");
+		if (locationOfLastDirectory < 0) return resource.directory;
 		
-		return jarPathAndClass.substring(startLocation, endLocation);
+		return resource.directory.substring(0, locationOfLastDirectory);
 	}
 	
 	public static void handleSelectionAction(PersistedWorkingSet<ResourceItem> historyStore, IWorkbenchPage workbenchPage, IWorkspaceRoot workspace, List<ResourceItem> resourceItems) {
@@ -172,7 +248,7 @@ public class FinderHandler extends AbstractHandler implements IStartup {
 				if (resourceItem.name.endsWith(".class"))
 					try {
 						HandleFactory factory = new HandleFactory();
-						Openable openable = factory.createOpenable(resourceItem.path, null);
+						Openable openable = factory.createOpenable(resourceItem.path(), null);
 						IType classFile = ((IClassFile)openable).getType();
 						JavaUI.openInEditor(classFile, true, true);
 					} catch (JavaModelException e) {
@@ -180,19 +256,18 @@ public class FinderHandler extends AbstractHandler implements IStartup {
 						e.printStackTrace();
 					}
 				else
-					IDE.openEditor(workbenchPage, workspace.getFile(Path.fromPortableString(resourceItem.project + "/" + resourceItem.path + "/" + resourceItem.name)));
+					IDE.openEditor(workbenchPage, workspace.getFile(Path.fromPortableString(resourceItem.project + "/" + resourceItem.directory + "/" + resourceItem.name)));
 			}
 		} catch (PartInitException e) {
 			throw new RuntimeException(e);
 		}
 	}
 	
-	public static Function<InputState, List<RankedItem<ResourceItem>>> listContentProvider(ListRankAndFilter<ResourceItem> listRankAndFilter, Supplier<List<ResourceItem>> resourceProvider) {
+	public static Function<InputState, List<RankedItem<ResourceItem>>> listContentProvider(ListRankAndFilter<ResourceItem> listRankAndFilter, Supplier<List<List<ResourceItem>>> scopedResourceProvider) {
 		
 		return (inputState) -> {
-			// TODO pre filter lists based on scope
-			// but how do we update pre filter here when scope changes?
-			List<RankedItem<ResourceItem>> filteredList = listRankAndFilter.rankAndFilter(inputState.inputCommand, resourceProvider.get() );
+			// the supplier resolves the shards for the scope current at the time of each query
+			List<RankedItem<ResourceItem>> filteredList = listRankAndFilter.rankAndFilterShards(inputState.inputCommand, scopedResourceProvider.get() );
 			return filteredList;
 		};
 	}